@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmarks the OPA producer hot path against a stub OPA server running in the same JVM, so that the numbers
+ * reflect the component rather than the policy evaluation.
+ *
+ * Run with <code>mvn -Pjmh verify</code>. The GC profiler is enabled, which reports the allocation rate per
+ * exchange as gc.alloc.rate.norm.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class OpaProducerBenchmark {
+
+    private static final String ALLOW = "{\"result\":true}";
+
+    @Param({"small", "large"})
+    public String inputSize;
+
+    @Param({"false", "true"})
+    public boolean synchronous;
+
+    private HttpServer opaServer;
+    private ExecutorService opaExecutor;
+    private CamelContext camelContext;
+    private ProducerTemplate producerTemplate;
+    private String input;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        opaExecutor = Executors.newFixedThreadPool(64);
+        opaServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        opaServer.createContext("/v1/data/bench/allow", OpaProducerBenchmark::allow);
+        opaServer.setExecutor(opaExecutor);
+        opaServer.start();
+
+        input = "small".equals(inputSize) ? input(1) : input(2000);
+
+        String opaUri = "opa:127.0.0.1:" + opaServer.getAddress().getPort() + "/v1/data/bench/allow"
+                + "?operationType=QUERY&handleError=true&maxConnectionsPerRoute=64&synchronous=" + synchronous;
+        camelContext = new DefaultCamelContext();
+        camelContext.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:opa").to(opaUri);
+            }
+        });
+        camelContext.start();
+        producerTemplate = camelContext.createProducerTemplate();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        camelContext.stop();
+        opaServer.stop(0);
+        opaExecutor.shutdownNow();
+    }
+
+    /**
+     * An input with the given number of resources, about 50 bytes each
+     */
+    private static String input(int resources) {
+        StringBuilder builder = new StringBuilder("{\"input\":{\"user\":\"alice\",\"action\":\"read\",\"resources\":[");
+        for(int i = 0; i < resources; i++) {
+            if(i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\":\"resource-").append(i).append("\",\"owner\":\"team-").append(i % 16).append("\"}");
+        }
+        return builder.append("]}}").toString();
+    }
+
+    private static void allow(HttpExchange httpExchange) throws IOException {
+        try (InputStream requestBody = httpExchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            while(requestBody.read(buffer) != -1) {
+                // drain the request
+            }
+        }
+        byte[] response = ALLOW.getBytes(StandardCharsets.UTF_8);
+        httpExchange.getResponseHeaders().add("Content-Type", "application/json");
+        httpExchange.sendResponseHeaders(200, response.length);
+        try (OutputStream responseBody = httpExchange.getResponseBody()) {
+            responseBody.write(response);
+        }
+    }
+
+    private Exchange call() {
+        Exchange exchange = producerTemplate.send("direct:opa", e -> e.getIn().setBody(input));
+        if(exchange.getIn().getHeader("OPA-Exception") != null) {
+            throw new IllegalStateException("OPA call failed: " + exchange.getIn().getHeader("OPA-Exception"));
+        }
+        return exchange;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Exchange latency() {
+        return call();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(1)
+    public Exchange throughput1Thread() {
+        return call();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(8)
+    public Exchange throughput8Threads() {
+        return call();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(64)
+    public Exchange throughput64Threads() {
+        return call();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(OpaProducerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Endpoint;
+import org.apache.camel.Exchange;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+
+/**
+ * Load and soak test of the OPA producer against an {@link OpaStandIn} running in the same JVM. A number of
+ * client threads call routes direct:load-N to opa:, at a target rate or as fast as they can, and every report
+ * interval the throughput, latency percentiles, error count, live threads and used heap are printed. At the end
+ * the heap and the threads are compared with the end of the warmup, so that leaks and pool exhaustion show up.
+ *
+ * Run with <code>mvn -Pload verify</code>, the settings are system properties:
+ * <ul>
+ * <li>opa.load.routes: number of direct to opa routes, default 4</li>
+ * <li>opa.load.concurrency: number of client threads, default 64</li>
+ * <li>opa.load.rate: target requests per second over all threads, 0 for no limit, default 5000</li>
+ * <li>opa.load.duration: seconds measured after the warmup, default 60</li>
+ * <li>opa.load.warmup: seconds of warmup, default 10</li>
+ * <li>opa.load.reportInterval: seconds between reports, default 10</li>
+ * <li>opa.load.latency: latency distribution of the stand-in, default lognormal:1:0.5</li>
+ * <li>opa.load.errorRate: share of requests answered with 500, default 0</li>
+ * <li>opa.load.resetRate: share of requests whose connection is reset, default 0</li>
+ * <li>opa.load.options: endpoint options added to or replacing the defaults, such as synchronous=true&amp;decisionCacheSize=1000</li>
+ * </ul>
+ *
+ * With a target rate, latencies are measured from the time each call was due rather than the time it was sent,
+ * so a stalled component shows up in the percentiles instead of only lowering the throughput.
+ */
+public class OpaLoadTest {
+
+    private final int routes = Integer.getInteger("opa.load.routes", 4);
+    private final int concurrency = Integer.getInteger("opa.load.concurrency", 64);
+    private final int rate = Integer.getInteger("opa.load.rate", 5000);
+    private final int duration = Integer.getInteger("opa.load.duration", 60);
+    private final int warmup = Integer.getInteger("opa.load.warmup", 10);
+    private final int reportInterval = Integer.getInteger("opa.load.reportInterval", 10);
+    private final String latency = System.getProperty("opa.load.latency", "lognormal:1:0.5");
+    private final double errorRate = Double.parseDouble(System.getProperty("opa.load.errorRate", "0"));
+    private final double resetRate = Double.parseDouble(System.getProperty("opa.load.resetRate", "0"));
+    private final String options = System.getProperty("opa.load.options", "");
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final OpaLatencyHistogram total = new OpaLatencyHistogram();
+    private final AtomicReference<OpaLatencyHistogram> interval = new AtomicReference<>(new OpaLatencyHistogram());
+    private final LongAdder failures = new LongAdder();
+    private CamelContext camelContext;
+    private volatile boolean measuring;
+    private volatile boolean running = true;
+    private long intervalStart;
+    private long intervalFailures;
+
+    public static void main(String[] args) throws Exception {
+        new OpaLoadTest().run();
+    }
+
+    private String endpointUri(int port) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("operationType", "QUERY");
+        parameters.put("handleError", "true");
+        parameters.put("maxConnectionsPerRoute", String.valueOf(concurrency));
+        parameters.put("maxTotalConnections", String.valueOf(concurrency));
+        for(String option : options.split("&")) {
+            if(!option.isEmpty()) {
+                parameters.put(option.substring(0, option.indexOf('=')), option.substring(option.indexOf('=') + 1));
+            }
+        }
+        return "opa:127.0.0.1:" + port + "/v1/data/load/allow?" + parameters.entrySet().stream()
+                .map(parameter -> parameter.getKey() + "=" + parameter.getValue())
+                .collect(Collectors.joining("&"));
+    }
+
+    public void run() throws Exception {
+        try (OpaStandIn opa = new OpaStandIn(latency, errorRate, resetRate)) {
+            String uri = endpointUri(opa.getPort());
+            System.out.printf("OPA load test: %d routes, %d threads, %s req/s, %ds + %ds warmup, latency %s, errors %.2f%%, resets %.2f%%%n",
+                    routes, concurrency, rate > 0 ? String.valueOf(rate) : "unlimited", duration, warmup, latency,
+                    errorRate * 100, resetRate * 100);
+            System.out.println(uri);
+
+            camelContext = new DefaultCamelContext();
+            camelContext.addRoutes(new RouteBuilder() {
+                @Override
+                public void configure() {
+                    for(int i = 0; i < routes; i++) {
+                        // distinct paths keep one endpoint per route
+                        from("direct:load-" + i).to(uri.replace("/allow?", "/allow" + i + "?"));
+                    }
+                }
+            });
+            camelContext.start();
+            ProducerTemplate producerTemplate = camelContext.createProducerTemplate();
+
+            ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+            for(int i = 0; i < concurrency; i++) {
+                String route = "direct:load-" + (i % routes);
+                clients.execute(() -> drive(producerTemplate, route));
+            }
+
+            TimeUnit.SECONDS.sleep(warmup);
+            System.gc();
+            long baselineHeap = memory.getHeapMemoryUsage().getUsed();
+            int baselineThreads = threads.getThreadCount();
+            long baselineConnections = opa.getConnections();
+            System.out.printf("warmup done: heap %.1f MB, %d threads, %d connections%n", baselineHeap / 1048576.0,
+                    baselineThreads, baselineConnections);
+
+            interval.set(new OpaLatencyHistogram());
+            intervalStart = System.nanoTime();
+            intervalFailures = failures.sum();
+            long start = intervalStart;
+            long startFailures = intervalFailures;
+            measuring = true;
+
+            ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+            reporter.scheduleAtFixedRate(() -> report(opa), reportInterval, reportInterval, TimeUnit.SECONDS);
+            TimeUnit.SECONDS.sleep(duration);
+            measuring = false;
+            reporter.shutdown();
+            reporter.awaitTermination(reportInterval, TimeUnit.SECONDS);
+            double elapsed = (System.nanoTime() - start) / 1e9;
+
+            System.gc();
+            long endHeap = memory.getHeapMemoryUsage().getUsed();
+            int endThreads = threads.getThreadCount();
+            System.out.printf("total: %.0f req/s, %d failures, p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n",
+                    total.getCount() / elapsed, failures.sum() - startFailures, total.getPercentile(50),
+                    total.getPercentile(95), total.getPercentile(99), total.getPercentile(99.9), total.getMax());
+            System.out.printf("heap growth %+.1f MB, thread growth %+d, peak threads %d, new connections %d%n",
+                    (endHeap - baselineHeap) / 1048576.0, endThreads - baselineThreads, threads.getPeakThreadCount(),
+                    opa.getConnections() - baselineConnections);
+            System.out.printf("stand-in: %d requests, %d injected errors, %d resets%n",
+                    opa.getRequests(), opa.getErrors(), opa.getResets());
+
+            running = false;
+            clients.shutdown();
+            clients.awaitTermination(30, TimeUnit.SECONDS);
+            camelContext.stop();
+        }
+    }
+
+    private void drive(ProducerTemplate producerTemplate, String route) {
+        String input = "{\"input\":{\"user\":\"alice\",\"action\":\"read\",\"resource\":\"" + route + "\"}}";
+        long period = rate > 0 ? TimeUnit.SECONDS.toNanos(concurrency) / rate : 0;
+        long due = System.nanoTime();
+        while(running) {
+            long now = System.nanoTime();
+            if(period > 0) {
+                if(due > now) {
+                    LockSupport.parkNanos(due - now);
+                }
+            } else {
+                due = now;
+            }
+            Exchange exchange = producerTemplate.send(route, e -> e.getIn().setBody(input));
+            long latency = System.nanoTime() - due;
+            if(exchange.getException() != null || exchange.getIn().getHeader("OPA-Exception") != null) {
+                failures.increment();
+            }
+            if(measuring) {
+                total.record(latency);
+                interval.get().record(latency);
+            }
+            due += period;
+        }
+    }
+
+    private void report(OpaStandIn opa) {
+        OpaLatencyHistogram histogram = interval.getAndSet(new OpaLatencyHistogram());
+        long now = System.nanoTime();
+        double elapsed = (now - intervalStart) / 1e9;
+        long currentFailures = failures.sum();
+        intervalStart = now;
+
+        List<String> inFlight = new ArrayList<>();
+        for(Endpoint endpoint : camelContext.getEndpoints()) {
+            if(endpoint instanceof OpaEndpoint) {
+                inFlight.add(String.valueOf(((OpaEndpoint) endpoint).getInFlightRequests()));
+            }
+        }
+        System.out.printf("%6.0f req/s %6d failures  p50 %7.2f  p95 %7.2f  p99 %7.2f  max %8.2f ms  threads %4d  heap %7.1f MB  connections %6d  in flight %s%n",
+                histogram.getCount() / elapsed, currentFailures - intervalFailures, histogram.getPercentile(50),
+                histogram.getPercentile(95), histogram.getPercentile(99), histogram.getMax(), threads.getThreadCount(),
+                memory.getHeapMemoryUsage().getUsed() / 1048576.0, opa.getConnections(), inFlight);
+        intervalFailures = currentFailures;
+    }
+}
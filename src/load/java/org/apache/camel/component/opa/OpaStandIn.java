@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Minimal HTTP/1.1 server standing in for OPA in load tests. Every request is allowed after a latency drawn from
+ * a distribution, except a share of them answered with 500 and a share whose connection is reset.
+ *
+ * Latency distributions, in milliseconds:
+ * <ul>
+ * <li>fixed:MS</li>
+ * <li>uniform:MIN:MAX</li>
+ * <li>exponential:MEAN</li>
+ * <li>lognormal:MEDIAN:SIGMA</li>
+ * <li>bimodal:FAST:SLOW:SLOW_RATIO, such as bimodal:1:200:0.01 for 1% of calls stuck on a slow OPA</li>
+ * </ul>
+ */
+public class OpaStandIn implements Closeable {
+
+    private static final byte[] ALLOW = "{\"result\":true}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ERROR = "{\"code\":\"internal_error\",\"message\":\"injected error\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final LongSupplier latency;
+    private final double errorRate;
+    private final double resetRate;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong resets = new AtomicLong();
+    private volatile boolean running = true;
+
+    public OpaStandIn(String latency, double errorRate, double resetRate) throws IOException {
+        this.latency = latency(latency);
+        this.errorRate = errorRate;
+        this.resetRate = resetRate;
+        this.serverSocket = new ServerSocket(0, 4096, InetAddress.getLoopbackAddress());
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "OpaStandIn");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::accept);
+    }
+
+    static LongSupplier latency(String distribution) {
+        String[] parts = distribution.split(":");
+        double[] values = new double[parts.length - 1];
+        for(int i = 1; i < parts.length; i++) {
+            values[i - 1] = Double.parseDouble(parts[i]) * 1_000_000;
+        }
+        switch(parts[0]) {
+            case "fixed":
+                return () -> (long) values[0];
+            case "uniform":
+                return () -> (long) (values[0] + ThreadLocalRandom.current().nextDouble() * (values[1] - values[0]));
+            case "exponential":
+                return () -> (long) (-values[0] * Math.log(1 - ThreadLocalRandom.current().nextDouble()));
+            case "lognormal":
+                // the sigma is not a duration
+                double sigma = values[1] / 1_000_000;
+                return () -> (long) (values[0] * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+            case "bimodal":
+                double slowRatio = values[2] / 1_000_000;
+                return () -> (long) (ThreadLocalRandom.current().nextDouble() < slowRatio ? values[1] : values[0]);
+            default:
+                throw new IllegalArgumentException("Unknown latency distribution: " + distribution);
+        }
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public long getConnections() {
+        return connections.get();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getResets() {
+        return resets.get();
+    }
+
+    private void accept() {
+        while(running) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                executor.execute(() -> serve(socket));
+            } catch(IOException e) {
+                if(running) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            boolean keepAlive = true;
+            while(keepAlive && running) {
+                String requestLine = readLine(in);
+                if(requestLine == null) {
+                    break;
+                }
+                long contentLength = 0;
+                boolean chunked = false;
+                String header;
+                while((header = readLine(in)) != null && !header.isEmpty()) {
+                    String name = header.substring(0, Math.max(0, header.indexOf(':'))).trim();
+                    String value = header.substring(header.indexOf(':') + 1).trim();
+                    if("Content-Length".equalsIgnoreCase(name)) {
+                        contentLength = Long.parseLong(value);
+                    } else if("Transfer-Encoding".equalsIgnoreCase(name)) {
+                        chunked = "chunked".equalsIgnoreCase(value);
+                    } else if("Connection".equalsIgnoreCase(name)) {
+                        keepAlive = !"close".equalsIgnoreCase(value);
+                    }
+                }
+                if(chunked) {
+                    drainChunks(in);
+                } else {
+                    drain(in, contentLength);
+                }
+                requests.incrementAndGet();
+                LockSupport.parkNanos(latency.getAsLong());
+
+                double draw = ThreadLocalRandom.current().nextDouble();
+                if(draw < resetRate) {
+                    resets.incrementAndGet();
+                    // a zero linger turns the close into a TCP reset
+                    socket.setSoLinger(true, 0);
+                    break;
+                } else if(draw < resetRate + errorRate) {
+                    errors.incrementAndGet();
+                    respond(out, "500 Internal Server Error", ERROR, keepAlive);
+                } else {
+                    respond(out, "200 OK", ALLOW, keepAlive);
+                }
+            }
+        } catch(SocketException e) {
+            // the client went away
+        } catch(IOException e) {
+            if(running) {
+                e.printStackTrace();
+            }
+        } finally {
+            try {
+                socket.close();
+            } catch(IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static void respond(OutputStream out, String status, byte[] body, boolean keepAlive) throws IOException {
+        String head = "HTTP/1.1 " + status + "\r\nContent-Type: application/json\r\nContent-Length: " + body.length
+                + (keepAlive ? "" : "\r\nConnection: close") + "\r\n\r\n";
+        out.write(head.getBytes(StandardCharsets.US_ASCII));
+        out.write(body);
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int c;
+        while((c = in.read()) != '\n') {
+            if(c < 0) {
+                return line.size() == 0 ? null : line.toString("US-ASCII");
+            }
+            if(c != '\r') {
+                line.write(c);
+            }
+        }
+        return line.toString("US-ASCII");
+    }
+
+    private static void drain(InputStream in, long length) throws IOException {
+        while(length > 0) {
+            long skipped = in.skip(length);
+            if(skipped <= 0) {
+                if(in.read() < 0) {
+                    throw new SocketException("Connection closed in the middle of a request");
+                }
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    private static void drainChunks(InputStream in) throws IOException {
+        String size;
+        while((size = readLine(in)) != null) {
+            int extension = size.indexOf(';');
+            long length = Long.parseLong((extension < 0 ? size : size.substring(0, extension)).trim(), 16);
+            if(length == 0) {
+                // trailers up to the empty line
+                String trailer;
+                while((trailer = readLine(in)) != null && !trailer.isEmpty()) {
+                    // ignore
+                }
+                return;
+            }
+            drain(in, length);
+            readLine(in);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Immutable in-memory index of an ACL document, read from the result of the OPA Data API:
+ *
+ * <pre>
+ * {"result": {"resource": {"principal": ["read", "write"]}}}
+ * </pre>
+ *
+ * Principal names are interned to ints and permission names to bits, so every resource holds a sorted array of
+ * principals and, at the same index, the bitset of their permissions. A check is a hash lookup of the resource
+ * and a binary search of the principal. At most 64 distinct permissions are supported.
+ */
+public final class OpaAclIndex {
+
+    private final Map<String, Integer> principals;
+    private final Map<String, Integer> permissions;
+    private final Map<String, Entries> resources;
+
+    private OpaAclIndex(Map<String, Integer> principals, Map<String, Integer> permissions, Map<String, Entries> resources) {
+        this.principals = principals;
+        this.permissions = permissions;
+        this.resources = resources;
+    }
+
+    /**
+     * True when the principal has the permission on the resource
+     */
+    public boolean isAllowed(String principal, String resource, String permission) {
+        Entries entries = resources.get(resource);
+        Integer principalId = principals.get(principal);
+        Integer bit = permissions.get(permission);
+        if(entries == null || principalId == null || bit == null) {
+            return false;
+        }
+        int index = Arrays.binarySearch(entries.principals, principalId);
+        return index >= 0 && (entries.permissions[index] & (1L << bit)) != 0;
+    }
+
+    public int getResourceCount() {
+        return resources.size();
+    }
+
+    public int getPrincipalCount() {
+        return principals.size();
+    }
+
+    /**
+     * Reads the ACL document of an OPA response, streaming it into the index
+     */
+    public static OpaAclIndex read(InputStream inputStream) throws IOException {
+        Map<String, Integer> principals = new HashMap<>();
+        Map<String, Integer> permissions = new HashMap<>();
+        Map<String, Entries> resources = new HashMap<>();
+
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        reader.beginObject();
+        while(reader.hasNext()) {
+            if(!"result".equals(reader.nextName())) {
+                reader.skipValue();
+                continue;
+            }
+            if(reader.peek() != JsonToken.BEGIN_OBJECT) {
+                throw new IOException("OPA ACL document is not an object: " + reader.peek());
+            }
+            reader.beginObject();
+            while(reader.hasNext()) {
+                String resource = reader.nextName();
+                resources.put(resource, readEntries(reader, principals, permissions));
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+        return new OpaAclIndex(principals, permissions, resources);
+    }
+
+    private static Entries readEntries(JsonReader reader, Map<String, Integer> principals, Map<String, Integer> permissions) throws IOException {
+        // sorted by principal id
+        TreeMap<Integer, Long> grants = new TreeMap<>();
+        reader.beginObject();
+        while(reader.hasNext()) {
+            Integer principalId = principals.computeIfAbsent(reader.nextName(), name -> principals.size());
+            long mask = grants.getOrDefault(principalId, 0L);
+            reader.beginArray();
+            while(reader.hasNext()) {
+                mask |= 1L << permissionBit(reader.nextString(), permissions);
+            }
+            reader.endArray();
+            grants.put(principalId, mask);
+        }
+        reader.endObject();
+
+        Entries entries = new Entries(grants.size());
+        int index = 0;
+        for(Map.Entry<Integer, Long> grant : grants.entrySet()) {
+            entries.principals[index] = grant.getKey();
+            entries.permissions[index++] = grant.getValue();
+        }
+        return entries;
+    }
+
+    private static int permissionBit(String permission, Map<String, Integer> permissions) throws IOException {
+        Integer bit = permissions.get(permission);
+        if(bit == null) {
+            if(permissions.size() == Long.SIZE) {
+                throw new IOException("OPA ACL document has more than " + Long.SIZE + " permissions");
+            }
+            bit = permissions.size();
+            permissions.put(permission, bit);
+        }
+        return bit;
+    }
+
+    private static final class Entries {
+        private final int[] principals;
+        private final long[] permissions;
+
+        private Entries(int size) {
+            this.principals = new int[size];
+            this.permissions = new long[size];
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.camel.Message;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+
+/**
+ * Answers ACL checks in-process from a snapshot of an ACL document pulled from the OPA Data API. The snapshot
+ * is refreshed in the background every aclRefreshInterval seconds with a conditional request, so an unchanged
+ * document is not downloaded again when OPA, or the proxy in front of it, sends an ETag. OPA itself sends none,
+ * so without an ETag the revision of the bundle owning the document, the one with a root above its path, is
+ * compared instead, and the document is only downloaded when it changed. A document outside every bundle root,
+ * such as data pushed with the Data API, is downloaded at each refresh.
+ */
+@Slf4j
+public class OpaAclSnapshot {
+
+    private final OpaEndpoint opaEndpoint;
+    private final String dataPath;
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder unchanged = new LongAdder();
+    private volatile OpaAclIndex index;
+    private volatile String etag;
+    private volatile String revision;
+    private ScheduledExecutorService refresher;
+
+    public OpaAclSnapshot(OpaEndpoint opaEndpoint) {
+        this.opaEndpoint = opaEndpoint;
+        // the path of the document in OPA, as bundle roots are written: acl/documents
+        String path = URI.create(opaEndpoint.getOpaUrl()).getPath();
+        path = path.startsWith("/v1/data") ? path.substring("/v1/data".length()) : path;
+        this.dataPath = path.replaceAll("^/+", "").replaceAll("/+$", "");
+    }
+
+    public void start() {
+        refresh();
+        if(opaEndpoint.getAclRefreshInterval() > 0) {
+            long interval = opaEndpoint.getAclRefreshInterval();
+            refresher = opaEndpoint.getCamelContext().getExecutorServiceManager()
+                    .newSingleThreadScheduledExecutor(this, "OpaAclRefresher");
+            refresher.scheduleWithFixedDelay(this::refresh, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    public void stop() {
+        if(refresher != null) {
+            opaEndpoint.getCamelContext().getExecutorServiceManager().shutdownNow(refresher);
+            refresher = null;
+        }
+        index = null;
+        etag = null;
+        revision = null;
+    }
+
+    /**
+     * Checks the OPA-Principal, OPA-Resource and OPA-Permission headers of the message against the snapshot
+     */
+    public OpaDecision check(Message message) {
+        OpaAclIndex current = index;
+        if(current == null) {
+            return OpaDecision.error("OPA ACL snapshot not loaded from " + opaEndpoint.getOpaUrl());
+        }
+        String principal = message.getHeader("OPA-Principal", String.class);
+        String resource = message.getHeader("OPA-Resource", String.class);
+        String permission = message.getHeader("OPA-Permission", String.class);
+        if(principal == null || resource == null || permission == null) {
+            return OpaDecision.error("Missing OPA-Principal, OPA-Resource or OPA-Permission header");
+        }
+        return current.isAllowed(principal, resource, permission) ? OpaDecision.allow() : OpaDecision.deny();
+    }
+
+    /**
+     * Downloads the ACL document unless it did not change, keeping the current snapshot when the call fails
+     */
+    public void refresh() {
+        String bundleRevision = etag == null ? bundleRevision() : null;
+        if(bundleRevision != null && bundleRevision.equals(revision) && index != null) {
+            refreshes.increment();
+            unchanged.increment();
+            log.trace("OPA bundle revision unchanged, keeping the OPA ACL snapshot");
+            return;
+        }
+
+        HttpGet httpGet = new HttpGet(opaEndpoint.getOpaUrl());
+        httpGet.setConfig(opaEndpoint.getRequestConfig());
+        if(etag != null) {
+            httpGet.setHeader("If-None-Match", etag);
+        }
+        try {
+            OpaAclIndex refreshed = opaEndpoint.getConnectionPool().execute(httpGet, this::read, true).join();
+            refreshes.increment();
+            if(refreshed == null) {
+                unchanged.increment();
+                log.trace("OPA ACL document unchanged");
+                return;
+            }
+            index = refreshed;
+            // read before the document, a bundle activated in between is only downloaded again
+            revision = bundleRevision;
+            log.debug("OPA ACL snapshot loaded: {} resources, {} principals", refreshed.getResourceCount(), refreshed.getPrincipalCount());
+        } catch(Exception e) {
+            log.warn("Cannot refresh the OPA ACL snapshot from {}, keeping the current one: {}",
+                    opaEndpoint.getOpaUrl(), OpaDecision.failure(e).getMessage());
+        }
+    }
+
+    /**
+     * The new index, or null when the document did not change
+     */
+    private OpaAclIndex read(HttpResponse httpResponse) throws IOException {
+        int statusCode = httpResponse.getStatusLine().getStatusCode();
+        if(statusCode == HttpStatus.SC_NOT_MODIFIED) {
+            return null;
+        }
+        if(statusCode != HttpStatus.SC_OK) {
+            throw new IOException("OPA answered " + httpResponse.getStatusLine());
+        }
+        OpaAclIndex refreshed = OpaAclIndex.read(httpResponse.getEntity().getContent());
+        Header etagHeader = httpResponse.getFirstHeader("ETag");
+        etag = etagHeader != null ? etagHeader.getValue() : null;
+        return refreshed;
+    }
+
+    /**
+     * The revision of the bundle owning the ACL document, or null when no bundle owns it, the bundle has no
+     * revision or the bundles cannot be read
+     */
+    private String bundleRevision() {
+        HttpGet httpGet = new HttpGet(opaEndpoint.getOpaBaseUrl() + "/v1/data/system/bundles");
+        httpGet.setConfig(opaEndpoint.getRequestConfig());
+        try {
+            return opaEndpoint.getConnectionPool().execute(httpGet, this::readRevision, true).join();
+        } catch(Exception e) {
+            log.trace("Cannot read the OPA bundle revisions: {}", OpaDecision.failure(e).getMessage());
+            return null;
+        }
+    }
+
+    private String readRevision(HttpResponse httpResponse) throws IOException {
+        if(httpResponse.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+            return null;
+        }
+        JsonElement document = JsonParser.parseReader(new InputStreamReader(httpResponse.getEntity().getContent(), StandardCharsets.UTF_8));
+        JsonElement result = document.isJsonObject() ? document.getAsJsonObject().get("result") : null;
+        if(result == null || !result.isJsonObject()) {
+            return null;
+        }
+
+        // {"result": {"bundle": {"manifest": {"revision": "...", "roots": ["acl"]}}}}
+        for(Map.Entry<String, JsonElement> bundle : result.getAsJsonObject().entrySet()) {
+            JsonElement manifest = bundle.getValue().isJsonObject() ? bundle.getValue().getAsJsonObject().get("manifest") : null;
+            if(manifest == null || !manifest.isJsonObject() || !owns((JsonObject) manifest)) {
+                continue;
+            }
+            // roots do not overlap, no other bundle holds part of the document
+            JsonElement bundleRevision = ((JsonObject) manifest).get("revision");
+            if(bundleRevision == null || !bundleRevision.isJsonPrimitive() || bundleRevision.getAsString().isEmpty()) {
+                return null;
+            }
+            return bundle.getKey() + "@" + bundleRevision.getAsString();
+        }
+        return null;
+    }
+
+    /**
+     * True when a root of the bundle is the path of the ACL document or above it
+     */
+    private boolean owns(JsonObject manifest) {
+        JsonElement roots = manifest.get("roots");
+        if(roots == null || !roots.isJsonArray()) {
+            // a bundle without roots owns the whole data tree
+            return true;
+        }
+        for(JsonElement root : roots.getAsJsonArray()) {
+            String prefix = root.isJsonPrimitive() ? root.getAsString().replaceAll("^/+", "").replaceAll("/+$", "") : null;
+            if(prefix != null && (prefix.isEmpty() || dataPath.equals(prefix) || dataPath.startsWith(prefix + "/"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public OpaAclIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Refreshes done, whether the document changed or not
+     */
+    public long getRefreshes() {
+        return refreshes.sum();
+    }
+
+    /**
+     * Refreshes that found the document unchanged
+     */
+    public long getUnchanged() {
+        return unchanged.sum();
+    }
+}
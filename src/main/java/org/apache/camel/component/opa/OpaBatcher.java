@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpResponse;
+
+/**
+ * Collects the inputs of pending exchanges and evaluates them in a single OPA request. The inputs are sent as
+ * one array, <code>{"input": [...]}</code>, to a batch-capable policy that must answer with an array of
+ * booleans in the same order, <code>{"result": [...]}</code>. Results are read like the result of a single
+ * request: an undefined result, or a null element, denies, and an element that is not a boolean fails the
+ * exchange it belongs to.
+ * <p>
+ * Batches go through the same path as single requests: they are counted by the endpoint metrics, spread by the
+ * load balancer and hedged when enabled. They are always sent asynchronously so that the flusher never waits
+ * for OPA; on a synchronous endpoint each exchange still waits for its own decision before its route goes on.
+ */
+@Slf4j
+public class OpaBatcher {
+
+    private final OpaEndpoint opaEndpoint;
+    private final OpaOperation opaOperation;
+    private final String batchPath;
+    private final int batchSize;
+    private final long batchMaxDelayNanos;
+    private final BlockingQueue<Pending> queue;
+    private final Set<CompletableFuture<?>> inFlight = ConcurrentHashMap.newKeySet();
+    private ExecutorService executorService;
+    private volatile boolean running;
+
+    public OpaBatcher(OpaEndpoint opaEndpoint) {
+        this.opaEndpoint = opaEndpoint;
+        this.opaOperation = new OpaOperation(opaEndpoint, false);
+        this.batchSize = opaEndpoint.getBatchSize();
+        this.batchMaxDelayNanos = TimeUnit.MILLISECONDS.toNanos(opaEndpoint.getBatchMaxDelayMs());
+        this.queue = new ArrayBlockingQueue<>(opaEndpoint.getBatchQueueSize());
+
+        // null sends the batches to the policy of the endpoint
+        String path = opaEndpoint.getBatchPath();
+        this.batchPath = path == null || path.startsWith("/") ? path : "/" + path;
+    }
+
+    public void start() {
+        running = true;
+        executorService = opaEndpoint.getCamelContext().getExecutorServiceManager().newSingleThreadExecutor(this, "OpaBatcher");
+        executorService.execute(this::run);
+    }
+
+    /**
+     * Stops accepting inputs, sends what is still queued and waits for the outstanding batches to complete.
+     */
+    public void stop() throws Exception {
+        running = false;
+        opaEndpoint.getCamelContext().getExecutorServiceManager().shutdownGraceful(executorService);
+
+        // inputs queued after the flusher exited
+        List<Pending> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        for(int i = 0; i < remaining.size(); i += batchSize) {
+            dispatch(new ArrayList<>(remaining.subList(i, Math.min(i + batchSize, remaining.size()))));
+        }
+
+        // inputs queued by callers that checked running just before it changed, they found the queue drained
+        remaining.clear();
+        queue.drainTo(remaining);
+        for(Pending pending : remaining) {
+            pending.future.complete(OpaDecision.failure(new IllegalStateException("OPA batcher is stopped")));
+        }
+
+        try {
+            CompletableFuture.allOf(inFlight.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        } catch(TimeoutException e) {
+            log.warn("Timed out waiting for {} OPA batches to complete", inFlight.size());
+        }
+    }
+
+    /**
+     * Queues the input of an exchange for the next batch, blocking while the queue is full.
+     */
+    public CompletableFuture<OpaDecision> submit(byte[] body) {
+        CompletableFuture<OpaDecision> future = new CompletableFuture<>();
+        try {
+            JsonElement document = JsonParser.parseString(new String(body, StandardCharsets.UTF_8));
+            JsonElement input = document.isJsonObject() && document.getAsJsonObject().has("input")
+                    ? document.getAsJsonObject().get("input") : JsonNull.INSTANCE;
+
+            if(!running) {
+                throw new IllegalStateException("OPA batcher is stopped");
+            }
+            Pending pending = new Pending(input, future);
+            queue.put(pending);
+            if(!running && queue.remove(pending)) {
+                // stopped while queuing, nothing drains the queue anymore
+                throw new IllegalStateException("OPA batcher is stopped");
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.complete(OpaDecision.failure(e));
+        } catch(Exception e) {
+            future.complete(OpaDecision.failure(e));
+        }
+        return future;
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while(running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if(first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                long deadline = System.nanoTime() + batchMaxDelayNanos;
+                queue.drainTo(batch, batchSize - batch.size());
+                while(batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if(next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+
+                dispatch(new ArrayList<>(batch));
+                batch.clear();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    private void dispatch(List<Pending> batch) {
+        JsonArray inputs = new JsonArray();
+        for(Pending pending : batch) {
+            inputs.add(pending.input);
+        }
+        JsonObject document = new JsonObject();
+        document.add("input", inputs);
+        log.trace("Sending batch of {} inputs to OPA", batch.size());
+
+        OpaInput input = OpaInput.of(document.toString().getBytes(StandardCharsets.UTF_8));
+        CompletableFuture<OpaDecision> request = opaOperation.send(input, batchPath, httpResponse -> readDecisions(httpResponse, batch.size()));
+        inFlight.add(request);
+        request.whenComplete((decision, throwable) -> {
+            inFlight.remove(request);
+            // an error answer or a failure applies to every input of the batch
+            List<OpaDecision> decisions = decision != null ? decision.getDecisions() : null;
+            for(int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(decisions != null ? decisions.get(i)
+                        : decision != null ? decision : OpaDecision.failure(throwable));
+            }
+        });
+    }
+
+    private OpaDecision readDecisions(HttpResponse httpResponse, int expected) throws IOException {
+        int statusCode = httpResponse.getStatusLine().getStatusCode();
+        if(statusCode >= 500) {
+            return OpaDecision.unavailable("Error calling OPA endpoint: " + opaEndpoint.getEndpointUri());
+        }
+        if(statusCode != 200) {
+            return OpaDecision.error("Error calling OPA endpoint: " + opaEndpoint.getEndpointUri());
+        }
+
+        List<OpaDecision> decisions = null;
+
+        JsonReader reader = new JsonReader(new InputStreamReader(httpResponse.getEntity().getContent(), StandardCharsets.UTF_8));
+        reader.beginObject();
+        while(reader.hasNext()) {
+            if(!"result".equals(reader.nextName())) {
+                reader.skipValue();
+                continue;
+            }
+            if(reader.peek() != JsonToken.BEGIN_ARRAY) {
+                throw new IOException("OPA batch result is not an array: " + reader.peek());
+            }
+            decisions = new ArrayList<>(expected);
+            reader.beginArray();
+            while(reader.hasNext()) {
+                decisions.add(readDecision(reader, decisions.size()));
+            }
+            break;
+        }
+        if(decisions == null) {
+            // an undefined result denies, as for a single request
+            decisions = Collections.nCopies(expected, OpaDecision.deny());
+        }
+        if(decisions.size() != expected) {
+            throw new IOException("OPA batch result holds " + decisions.size() + " decisions instead of " + expected);
+        }
+        return OpaDecision.batch(decisions);
+    }
+
+    private static OpaDecision readDecision(JsonReader reader, int index) throws IOException {
+        JsonToken token = reader.peek();
+        if(token == JsonToken.BOOLEAN) {
+            return reader.nextBoolean() ? OpaDecision.allow() : OpaDecision.deny();
+        }
+        reader.skipValue();
+        if(token == JsonToken.NULL) {
+            return OpaDecision.deny();
+        }
+        return OpaDecision.failure(new IOException("OPA batch result " + index + " is not a boolean: " + token));
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private static final class Pending {
+        private final JsonElement input;
+        private final CompletableFuture<OpaDecision> future;
+
+        private Pending(JsonElement input, CompletableFuture<OpaDecision> future) {
+            this.input = input;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bulkhead isolating an endpoint from a slow OPA. At most maxConcurrentCalls calls are in flight, up to queueSize
+ * more wait for a slot without holding a thread, and the calls beyond are rejected with the reject policy.
+ *
+ * Calls can run on a dedicated executor, so that blocking requests do not hold the threads of the route: virtual
+ * threads on Java 21 or later, otherwise a pool of maxConcurrentCalls threads from the ExecutorServiceManager.
+ * Without one, queued blocking calls wait for their slot on their own thread, so that no caller ends up running
+ * the calls of the others before its own exchange continues.
+ */
+@Slf4j
+public class OpaBulkhead {
+
+    private static final OpaDecision FULL_DECISION = OpaDecision.error("OPA bulkhead is full");
+
+    private final OpaEndpoint opaEndpoint;
+    private final int maxConcurrentCalls;
+    private final int queueSize;
+    private final OpaBulkheadRejectPolicy rejectPolicy;
+    private final Semaphore permits;
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger drains = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private ExecutorService executorService;
+    private boolean virtualThreads;
+    private boolean blocking;
+
+    public OpaBulkhead(OpaEndpoint endpoint) {
+        this.opaEndpoint = endpoint;
+        this.maxConcurrentCalls = endpoint.getBulkheadMaxConcurrentCalls();
+        this.queueSize = Math.max(0, endpoint.getBulkheadQueueSize());
+        this.rejectPolicy = endpoint.getBulkheadRejectPolicy();
+        this.permits = new Semaphore(maxConcurrentCalls);
+    }
+
+    public void start() {
+        if(opaEndpoint.getBulkheadExecutor()) {
+            executorService = newVirtualThreadExecutor();
+            virtualThreads = executorService != null;
+            if(executorService == null) {
+                executorService = opaEndpoint.getCamelContext().getExecutorServiceManager()
+                        .newFixedThreadPool(this, "OpaBulkhead", maxConcurrentCalls);
+            }
+            log.debug("OPA bulkhead calls run on {}", virtualThreads ? "virtual threads" : maxConcurrentCalls + " threads");
+        }
+        // calls on the route threads that block until OPA answers
+        blocking = executorService == null && (opaEndpoint.isSynchronous() || opaEndpoint.getUnixSocketPath() != null);
+    }
+
+    public void stop() {
+        if(executorService != null) {
+            if(virtualThreads) {
+                executorService.shutdown();
+            } else {
+                opaEndpoint.getCamelContext().getExecutorServiceManager().shutdown(executorService);
+            }
+            executorService = null;
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch(ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Makes the call once a slot is free, or gives the rejected decision right away when the queue is full
+     */
+    public CompletableFuture<OpaDecision> submit(Supplier<CompletableFuture<OpaDecision>> call) {
+        if(permits.tryAcquire()) {
+            return run(call);
+        }
+        if(queued.incrementAndGet() > queueSize) {
+            queued.decrementAndGet();
+            rejected.increment();
+            log.trace("OPA bulkhead full, {} decision applied", rejectPolicy);
+            return CompletableFuture.completedFuture(reject());
+        }
+
+        if(blocking) {
+            // the caller blocks for its call anyway, it waits for its own slot
+            try {
+                permits.acquire();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return CompletableFuture.completedFuture(OpaDecision.failure(e));
+            } finally {
+                queued.decrementAndGet();
+            }
+            return run(call);
+        }
+
+        CompletableFuture<OpaDecision> decision = new CompletableFuture<>();
+        queue.add(() -> {
+            if(decision.isDone()) {
+                // cancelled while queued
+                permits.release();
+                return;
+            }
+            run(call).whenComplete((opaDecision, throwable) -> decision.complete(opaDecision));
+        });
+        // a slot may have been freed before the call was queued
+        drain();
+        return decision;
+    }
+
+    private OpaDecision reject() {
+        switch(rejectPolicy) {
+            case ALLOW:
+                return OpaDecision.allow();
+            case DENY:
+                return OpaDecision.deny();
+            default:
+                return FULL_DECISION;
+        }
+    }
+
+    private CompletableFuture<OpaDecision> run(Supplier<CompletableFuture<OpaDecision>> call) {
+        CompletableFuture<OpaDecision> response;
+        try {
+            response = executorService != null
+                    ? CompletableFuture.supplyAsync(call, executorService).thenCompose(Function.identity())
+                    : call.get();
+        } catch(Exception e) {
+            response = CompletableFuture.completedFuture(OpaDecision.failure(e));
+        }
+        CompletableFuture<OpaDecision> pending = response;
+        CompletableFuture<OpaDecision> decision = response.exceptionally(OpaDecision::failure);
+        decision.whenComplete((opaDecision, throwable) -> {
+            if(decision.isCancelled()) {
+                pending.cancel(false);
+            }
+            permits.release();
+            drain();
+        });
+        return decision;
+    }
+
+    /**
+     * Starts queued calls while slots are free. Only one thread drains at a time, the others leave it more work,
+     * so that calls completing right away do not recurse.
+     */
+    private void drain() {
+        if(drains.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            while(!queue.isEmpty() && permits.tryAcquire()) {
+                Runnable next = queue.poll();
+                if(next == null) {
+                    permits.release();
+                    break;
+                }
+                queued.decrementAndGet();
+                next.run();
+            }
+            missed = drains.addAndGet(-missed);
+        } while(missed != 0);
+    }
+
+    public int getInFlight() {
+        return maxConcurrentCalls - permits.availablePermits();
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+}
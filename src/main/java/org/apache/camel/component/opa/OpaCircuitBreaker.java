@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.camel.support.LRUCacheFactory;
+
+/**
+ * Circuit breaker in front of the calls to OPA. The outcome of the last windowSize calls is kept, errors and
+ * calls slower than the slow call threshold both counting as failures. Once the failure rate reaches the
+ * threshold over a full window the breaker opens and exchanges get the fallback decision without calling OPA.
+ * After the open duration it lets halfOpenCalls trial calls through: the breaker closes when they all succeed
+ * and opens again at the first failure.
+ */
+@Slf4j
+public class OpaCircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final OpaDecision OPEN_DECISION = OpaDecision.error("OPA circuit breaker is open");
+
+    private final boolean[] window;
+    private final int failureRateThreshold;
+    private final long slowCallThreshold;
+    private final long openDuration;
+    private final int halfOpenCalls;
+    private final OpaFallbackDecision fallback;
+    private final Map<OpaInputKey, OpaDecision> lastDecisions;
+    private final LongAdder rejected = new LongAdder();
+
+    private State state = State.CLOSED;
+    private int position;
+    private int calls;
+    private int failures;
+    private long openedAt;
+    private int trialCalls;
+    private int trialSuccesses;
+    private long opened;
+
+    public OpaCircuitBreaker(OpaEndpoint endpoint) {
+        this.window = new boolean[Math.max(1, endpoint.getCircuitBreakerWindowSize())];
+        this.failureRateThreshold = endpoint.getCircuitBreakerFailureRate();
+        this.slowCallThreshold = TimeUnit.MILLISECONDS.toNanos(endpoint.getCircuitBreakerSlowCallThreshold());
+        this.openDuration = TimeUnit.SECONDS.toNanos(endpoint.getCircuitBreakerOpenDuration());
+        this.halfOpenCalls = Math.max(1, endpoint.getCircuitBreakerHalfOpenCalls());
+        this.fallback = endpoint.getCircuitBreakerFallback();
+        this.lastDecisions = fallback == OpaFallbackDecision.LAST_CACHED
+                ? LRUCacheFactory.newLRUCache(endpoint.getDecisionCacheSize() > 0 ? endpoint.getDecisionCacheSize() : 1000)
+                : null;
+    }
+
+    /**
+     * True when the call may go to OPA, false when the breaker is open and the fallback decision applies
+     */
+    public synchronized boolean tryAcquire() {
+        if(state == State.OPEN) {
+            if(System.nanoTime() - openedAt < openDuration) {
+                rejected.increment();
+                return false;
+            }
+            transition(State.HALF_OPEN);
+        }
+        if(state == State.HALF_OPEN) {
+            if(trialCalls >= halfOpenCalls) {
+                rejected.increment();
+                return false;
+            }
+            trialCalls++;
+        }
+        return true;
+    }
+
+    /**
+     * Records the outcome of a call let through by {@link #tryAcquire()}
+     */
+    public void onResult(OpaInputKey key, OpaDecision decision, long nanos) {
+        boolean failure = decision.isError() || (slowCallThreshold > 0 && nanos >= slowCallThreshold);
+        if(lastDecisions != null && key != null && !decision.isError()) {
+            synchronized (lastDecisions) {
+                lastDecisions.put(key, decision);
+            }
+        }
+
+        synchronized (this) {
+            switch(state) {
+                case HALF_OPEN:
+                    if(failure) {
+                        transition(State.OPEN);
+                    } else if(++trialSuccesses >= halfOpenCalls) {
+                        transition(State.CLOSED);
+                    }
+                    break;
+                case CLOSED:
+                    record(failure);
+                    if(calls == window.length && failures * 100 >= failureRateThreshold * calls) {
+                        transition(State.OPEN);
+                    }
+                    break;
+                default:
+                    // a call started before the breaker opened
+            }
+        }
+    }
+
+    /**
+     * The decision given while the breaker is open
+     */
+    public OpaDecision fallback(OpaInputKey key) {
+        switch(fallback) {
+            case ALLOW:
+                return OpaDecision.allow();
+            case LAST_CACHED:
+                OpaDecision lastDecision;
+                synchronized (lastDecisions) {
+                    lastDecision = key != null ? lastDecisions.get(key) : null;
+                }
+                return lastDecision != null ? lastDecision : OPEN_DECISION;
+            default:
+                return OPEN_DECISION;
+        }
+    }
+
+    /**
+     * True when the fallback needs the key of the input
+     */
+    public boolean isKeyed() {
+        return lastDecisions != null;
+    }
+
+    private void record(boolean failure) {
+        if(calls == window.length) {
+            if(window[position]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        window[position] = failure;
+        if(failure) {
+            failures++;
+        }
+        position = (position + 1) % window.length;
+    }
+
+    private void transition(State next) {
+        log.info("OPA circuit breaker changed from {} to {}", state, next);
+        state = next;
+        trialCalls = 0;
+        trialSuccesses = 0;
+        if(next == State.OPEN) {
+            openedAt = System.nanoTime();
+            opened++;
+        } else if(next == State.CLOSED) {
+            calls = 0;
+            failures = 0;
+            position = 0;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Percentage of failed calls in the window while closed
+     */
+    public synchronized double getFailureRate() {
+        return calls == 0 ? 0 : failures * 100.0 / calls;
+    }
+
+    /**
+     * Number of times the breaker opened
+     */
+    public synchronized long getOpened() {
+        return opened;
+    }
+
+    /**
+     * Exchanges given the fallback decision
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public synchronized void reset() {
+        if(state != State.CLOSED) {
+            transition(State.CLOSED);
+        }
+        calls = 0;
+        failures = 0;
+        position = 0;
+    }
+}
@@ -16,6 +16,8 @@
  */
 package org.apache.camel.component.opa;
 
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 import org.apache.camel.CamelContext;
@@ -30,6 +32,11 @@ import org.apache.camel.support.DefaultComponent;
 @Component("opa")
 public class OpaComponent extends DefaultComponent {
 
+    @Metadata(label = "advanced")
+    private boolean sharedConnectionPool;
+
+    private final Map<String, OpaConnectionPool> connectionPools = new HashMap<>();
+
     public OpaComponent() {
         this(null);
     }
@@ -44,4 +51,46 @@ public class OpaComponent extends DefaultComponent {
         setProperties(endpoint, parameters);
         return endpoint;
     }
+
+    public boolean isSharedConnectionPool() {
+        return sharedConnectionPool;
+    }
+
+    /**
+     * If true all the endpoints calling the same OPA host share one connection pool, sized by the first endpoint
+     * started for that host
+     * @param sharedConnectionPool
+     */
+    public void setSharedConnectionPool(boolean sharedConnectionPool) {
+        this.sharedConnectionPool = sharedConnectionPool;
+    }
+
+    synchronized OpaConnectionPool acquireConnectionPool(String key, OpaEndpoint endpoint) {
+        OpaConnectionPool connectionPool = connectionPools.computeIfAbsent(key, k -> new OpaConnectionPool(k, endpoint));
+        connectionPool.retain();
+        return connectionPool;
+    }
+
+    synchronized void releaseConnectionPool(OpaConnectionPool connectionPool) throws Exception {
+        if(connectionPool.release() <= 0) {
+            connectionPools.remove(connectionPool.getKey(), connectionPool);
+            connectionPool.close();
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        synchronized (this) {
+            // a pool still used by an endpoint is closed when the endpoint stops and releases it
+            Iterator<OpaConnectionPool> iterator = connectionPools.values().iterator();
+            while(iterator.hasNext()) {
+                OpaConnectionPool connectionPool = iterator.next();
+                if(!connectionPool.isReferenced()) {
+                    iterator.remove();
+                    connectionPool.close();
+                }
+            }
+        }
+        super.doStop();
+    }
 }
@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.camel.spi.ExecutorServiceManager;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.conn.ManagedNHttpClientConnectionFactory;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Pooled HTTP clients used to talk to an OPA server. A pool is either owned by a single {@link OpaEndpoint}
+ * or shared by all the endpoints of the {@link OpaComponent} aimed at the same OPA host.
+ *
+ * The blocking client serves synchronous endpoints, the non-blocking one is only created once an asynchronous
+ * endpoint uses the pool. Over a Unix domain socket only the blocking client exists, asynchronous endpoints use it
+ * as well.
+ */
+@Slf4j
+public class OpaConnectionPool {
+
+    private final String key;
+    private final ExecutorServiceManager executorServiceManager;
+    private final int maxConnectionsPerRoute;
+    private final int maxTotalConnections;
+    private final long timeToLive;
+    private final int idleConnectionTimeout;
+    private final ConnectionKeepAliveStrategy keepAliveStrategy;
+    private final boolean unixSocket;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private PoolingNHttpClientConnectionManager asyncConnectionManager;
+    private CloseableHttpAsyncClient asyncHttpClient;
+    private ScheduledExecutorService asyncConnectionEvictor;
+    private ScheduledExecutorService unixSocketConnectTimer;
+    private ExecutorService responseExecutor;
+    private int references;
+
+    public OpaConnectionPool(String key, OpaEndpoint endpoint) {
+        this.key = key;
+        this.executorServiceManager = endpoint.getCamelContext().getExecutorServiceManager();
+        this.maxConnectionsPerRoute = endpoint.getMaxConnectionsPerRoute();
+        this.maxTotalConnections = endpoint.getMaxTotalConnections();
+        this.timeToLive = endpoint.getConnectionTimeToLive() > 0 ? endpoint.getConnectionTimeToLive() : -1;
+        this.idleConnectionTimeout = endpoint.getIdleConnectionTimeout();
+        this.keepAliveStrategy = keepAliveStrategy(endpoint.getKeepAliveTimeout());
+
+        this.unixSocket = endpoint.getUnixSocketPath() != null;
+
+        if(unixSocket) {
+            // every host maps to the socket, so the host name must not go through DNS
+            unixSocketConnectTimer = executorServiceManager.newSingleThreadScheduledExecutor(this, "OpaUnixSocketConnect");
+            OpaUnixSocketFactory socketFactory = new OpaUnixSocketFactory(endpoint.getUnixSocketPath(), unixSocketConnectTimer);
+            Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+                    .register("http", socketFactory)
+                    .build();
+            DnsResolver dnsResolver = host -> new InetAddress[] {InetAddress.getLoopbackAddress()};
+            connectionManager = new PoolingHttpClientConnectionManager(socketFactories, null,
+                    DefaultSchemePortResolver.INSTANCE, dnsResolver, timeToLive, TimeUnit.SECONDS);
+        } else {
+            connectionManager = new PoolingHttpClientConnectionManager(timeToLive, TimeUnit.SECONDS);
+        }
+        connectionManager.setMaxTotal(maxTotalConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        HttpClientBuilder httpClientBuilder = HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .addInterceptorLast(OpaMetrics.REQUEST_INTERCEPTOR)
+                .addInterceptorFirst(OpaMetrics.RESPONSE_INTERCEPTOR)
+                .evictExpiredConnections();
+
+        if(idleConnectionTimeout > 0) {
+            httpClientBuilder.evictIdleConnections(idleConnectionTimeout, TimeUnit.SECONDS);
+        }
+
+        httpClient = httpClientBuilder.build();
+        log.debug("Created OPA connection pool for {} (max per route: {}, max total: {})",
+                key, maxConnectionsPerRoute, maxTotalConnections);
+    }
+
+    private static ConnectionKeepAliveStrategy keepAliveStrategy(int keepAliveTimeout) {
+        return (response, context) -> {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            if(duration > 0 || keepAliveTimeout <= 0) {
+                return duration;
+            }
+            return keepAliveTimeout * 1000L;
+        };
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    public synchronized CloseableHttpAsyncClient getAsyncHttpClient() throws IOException {
+        if(asyncHttpClient == null) {
+            Registry<SchemeIOSessionStrategy> sessionStrategies = RegistryBuilder.<SchemeIOSessionStrategy>create()
+                    .register("http", NoopIOSessionStrategy.INSTANCE)
+                    .register("https", SSLIOSessionStrategy.getDefaultStrategy())
+                    .build();
+
+            asyncConnectionManager = new PoolingNHttpClientConnectionManager(
+                    new DefaultConnectingIOReactor(IOReactorConfig.DEFAULT),
+                    ManagedNHttpClientConnectionFactory.INSTANCE, sessionStrategies,
+                    DefaultSchemePortResolver.INSTANCE, SystemDefaultDnsResolver.INSTANCE, timeToLive, TimeUnit.SECONDS);
+            asyncConnectionManager.setMaxTotal(maxTotalConnections);
+            asyncConnectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+            asyncHttpClient = HttpAsyncClientBuilder.create()
+                    .setConnectionManager(asyncConnectionManager)
+                    .setKeepAliveStrategy(keepAliveStrategy)
+                    .addInterceptorLast(OpaMetrics.REQUEST_INTERCEPTOR)
+                    .addInterceptorFirst(OpaMetrics.RESPONSE_INTERCEPTOR)
+                    .build();
+            asyncHttpClient.start();
+
+            // the non-blocking client has no built-in evictor
+            asyncConnectionEvictor = executorServiceManager.newSingleThreadScheduledExecutor(this, "OpaConnectionEvictor");
+            asyncConnectionEvictor.scheduleWithFixedDelay(this::evictAsyncConnections, 5, 5, TimeUnit.SECONDS);
+            // the exchanges continue on these threads, never on the I/O reactor
+            responseExecutor = executorServiceManager.newDefaultThreadPool(this, "OpaResponse");
+            log.debug("Started OPA non-blocking client for {}", key);
+        }
+        return asyncHttpClient;
+    }
+
+    private void evictAsyncConnections() {
+        asyncConnectionManager.closeExpiredConnections();
+        if(idleConnectionTimeout > 0) {
+            asyncConnectionManager.closeIdleConnections(idleConnectionTimeout, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Sends the request and hands the response to the given handler. When synchronous the call blocks and the
+     * returned future is already complete, otherwise the response is read on the I/O thread that received it and
+     * the future completes on a thread of the Camel executor service manager, so that whatever runs next never
+     * blocks the I/O reactor.
+     * Requests over a Unix domain socket are always sent synchronously.
+     * Cancelling the returned future aborts the request.
+     */
+    public <T> CompletableFuture<T> execute(HttpUriRequest request, ResponseHandler<? extends T> responseHandler, boolean synchronous) {
+        return execute(request, HttpClientContext.create(), responseHandler, synchronous);
+    }
+
+    public <T> CompletableFuture<T> execute(HttpUriRequest request, HttpContext context, ResponseHandler<? extends T> responseHandler, boolean synchronous) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        if(synchronous || unixSocket) {
+            try {
+                future.complete(httpClient.execute(request, responseHandler, context));
+            } catch(Exception e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+
+        try {
+            CloseableHttpAsyncClient client = getAsyncHttpClient();
+            Executor executor = responseExecutor;
+            Future<HttpResponse> httpFuture = client.execute(request, context, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse httpResponse) {
+                    // the non-blocking client buffers the whole response, reading it does not block
+                    T result;
+                    try {
+                        result = responseHandler.handleResponse(httpResponse);
+                    } catch(Exception e) {
+                        failed(e);
+                        return;
+                    } finally {
+                        EntityUtils.consumeQuietly(httpResponse.getEntity());
+                    }
+                    dispatch(executor, () -> future.complete(result));
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    dispatch(executor, () -> future.completeExceptionally(e));
+                }
+
+                @Override
+                public void cancelled() {
+                    dispatch(executor, () -> future.cancel(false));
+                }
+            });
+            future.whenComplete((result, throwable) -> {
+                if(future.isCancelled()) {
+                    httpFuture.cancel(true);
+                }
+            });
+        } catch(Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private static void dispatch(Executor executor, Runnable completion) {
+        try {
+            executor.execute(completion);
+        } catch(RejectedExecutionException e) {
+            // the pool is closing
+            completion.run();
+        }
+    }
+
+    synchronized int retain() {
+        return ++references;
+    }
+
+    synchronized int release() {
+        return --references;
+    }
+
+    /**
+     * True while an endpoint still uses the pool
+     */
+    synchronized boolean isReferenced() {
+        return references > 0;
+    }
+
+    public synchronized void close() throws IOException {
+        log.debug("Closing OPA connection pool for {}", key);
+        httpClient.close();
+        if(unixSocketConnectTimer != null) {
+            executorServiceManager.shutdown(unixSocketConnectTimer);
+        }
+        if(asyncHttpClient != null) {
+            executorServiceManager.shutdown(asyncConnectionEvictor);
+            asyncHttpClient.close();
+            asyncHttpClient = null;
+            executorServiceManager.shutdown(responseExecutor);
+            responseExecutor = null;
+        }
+    }
+}
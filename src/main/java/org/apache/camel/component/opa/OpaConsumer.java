@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.camel.Consumer;
+import org.apache.camel.Endpoint;
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.apache.camel.Processor;
+import org.apache.camel.support.DefaultConsumer;
+import org.apache.camel.support.service.ServiceHelper;
+
+/**
+ * Receives the decision logs OPA uploads on the path of the endpoint. The HTTP server is the one of the
+ * platform-http component, so the host, port, TLS and threads are those configured for its engine, and the opa
+ * consumer only reads the batches: a batch is decompressed as it is read, and routed either as one exchange whose
+ * body is the JSON array of decisions as an InputStream, or as one exchange per decision, read one at a time.
+ * Only maxConcurrentUploads batches are processed at once, further uploads are answered with 429 so that OPA keeps
+ * them buffered and retries later.
+ */
+@Slf4j
+public class OpaConsumer extends DefaultConsumer {
+
+    private final Semaphore uploads;
+    private Consumer httpConsumer;
+
+    public OpaConsumer(OpaEndpoint endpoint, Processor processor) {
+        super(endpoint, processor);
+        this.uploads = new Semaphore(Math.max(1, endpoint.getMaxConcurrentUploads()));
+    }
+
+    @Override
+    public OpaEndpoint getEndpoint() {
+        return (OpaEndpoint) super.getEndpoint();
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        String path = URI.create(getEndpoint().getOpaUrl()).getPath();
+        if(path == null || path.isEmpty()) {
+            path = "/";
+        }
+
+        Endpoint httpEndpoint = getEndpoint().getCamelContext().getEndpoint("platform-http:" + path + "?httpMethodRestrict=POST");
+        httpConsumer = httpEndpoint.createConsumer(this::upload);
+        ServiceHelper.startService(httpConsumer);
+        log.info("Receiving OPA decision logs on {}", httpEndpoint);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        ServiceHelper.stopAndShutdownService(httpConsumer);
+        httpConsumer = null;
+        super.doStop();
+    }
+
+    private void upload(Exchange upload) {
+        Message response = upload.getMessage();
+        if(!uploads.tryAcquire()) {
+            log.debug("Too many OPA decision log uploads in progress, asking OPA to retry");
+            response.setBody(null);
+            response.setHeader(Exchange.HTTP_RESPONSE_CODE, 429);
+            response.setHeader("Retry-After", "1");
+            return;
+        }
+        try {
+            InputStream body = upload.getIn().getMandatoryBody(InputStream.class);
+            if("gzip".equalsIgnoreCase(upload.getIn().getHeader("Content-Encoding", String.class))) {
+                body = new GZIPInputStream(body);
+            }
+            if(getEndpoint().getSplitDecisions()) {
+                processDecisions(body);
+            } else {
+                process(body);
+            }
+            response.setBody(null);
+            response.setHeader(Exchange.HTTP_RESPONSE_CODE, 204);
+        } catch(Exception e) {
+            // OPA keeps the batch and uploads it again
+            getExceptionHandler().handleException("Error processing OPA decision logs", e);
+            response.setBody(null);
+            response.setHeader(Exchange.HTTP_RESPONSE_CODE, 500);
+        } finally {
+            uploads.release();
+            // the platform-http consumer answers with the headers of the message, not with those of the upload
+            response.removeHeader("Content-Encoding");
+        }
+    }
+
+    private void processDecisions(InputStream body) throws Exception {
+        JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        reader.beginArray();
+        while(reader.hasNext()) {
+            JsonElement decision = JsonParser.parseReader(reader);
+            Exchange exchange = getEndpoint().createExchange();
+            if(decision.isJsonObject()) {
+                JsonObject event = decision.getAsJsonObject();
+                if(event.has("decision_id")) {
+                    exchange.getIn().setHeader("OPA-DecisionId", event.get("decision_id").getAsString());
+                }
+            }
+            exchange.getIn().setBody(decision.toString());
+            process(exchange);
+        }
+        reader.endArray();
+    }
+
+    private void process(InputStream body) throws Exception {
+        Exchange exchange = getEndpoint().createExchange();
+        exchange.getIn().setBody(body);
+        process(exchange);
+    }
+
+    private void process(Exchange exchange) throws Exception {
+        getProcessor().process(exchange);
+        if(exchange.getException() != null) {
+            throw exchange.getException();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.camel.Message;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * Pushes data documents to OPA. The last document sent to each path is kept, and a new version is sent as the
+ * JSON Patch from the previous one with <code>PATCH /v1/data/{path}</code>, unless the patch is not smaller than
+ * the document, which is then replaced with a PUT. Payloads larger than dataGzipThreshold bytes are gzipped.
+ */
+@Slf4j
+public class OpaDataPush {
+
+    private static final ContentType JSON_PATCH = ContentType.create("application/json-patch+json", StandardCharsets.UTF_8);
+
+    private final OpaEndpoint opaEndpoint;
+    private final Map<String, Document> documents = new ConcurrentHashMap<>();
+
+    public OpaDataPush(OpaEndpoint opaEndpoint) {
+        this.opaEndpoint = opaEndpoint;
+    }
+
+    public void stop() {
+        documents.clear();
+    }
+
+    /**
+     * Sends the message body to the endpoint path, or below it when the OPA-DataPath header is set, and returns
+     * the HTTP method used
+     */
+    public String push(Message message) throws IOException {
+        String path = message.getHeader("OPA-DataPath", String.class);
+        String url = path == null ? opaEndpoint.getOpaUrl() : opaEndpoint.getOpaUrl().replaceAll("/+$", "") + "/" + path.replaceAll("^/+", "");
+        JsonElement target;
+        try (InputStreamReader reader = new InputStreamReader(message.getMandatoryBody(InputStream.class), StandardCharsets.UTF_8)) {
+            target = JsonParser.parseReader(reader);
+        } catch(IOException e) {
+            throw e;
+        } catch(Exception e) {
+            throw new IOException("Cannot read the OPA data document: " + e.getMessage(), e);
+        }
+
+        Document document = documents.computeIfAbsent(url, key -> new Document());
+        // one update at a time per path, the patch must apply to what OPA holds
+        synchronized (document) {
+            byte[] full = target.toString().getBytes(StandardCharsets.UTF_8);
+            if(document.sent != null) {
+                JsonArray patch = OpaJsonPatch.diff(document.sent, target);
+                if(patch.size() == 0) {
+                    log.trace("OPA data document {} unchanged", url);
+                    return "NONE";
+                }
+                byte[] delta = patch.toString().getBytes(StandardCharsets.UTF_8);
+                if(delta.length < full.length) {
+                    int statusCode = send(new HttpPatch(url), delta, JSON_PATCH);
+                    if(statusCode == 204 || statusCode == 200) {
+                        document.sent = target;
+                        return "PATCH";
+                    }
+                    // the document OPA holds is not the one the patch was computed from, replace it
+                    log.debug("OPA answered {} to the patch of {}, sending the whole document", statusCode, url);
+                }
+            }
+
+            document.sent = null;
+            int statusCode = send(new HttpPut(url), full, ContentType.APPLICATION_JSON);
+            if(statusCode != 204 && statusCode != 200) {
+                throw new IOException("OPA answered " + statusCode + " to the update of " + url);
+            }
+            document.sent = target;
+            return "PUT";
+        }
+    }
+
+    private int send(HttpEntityEnclosingRequestBase request, byte[] payload, ContentType contentType) throws IOException {
+        request.setConfig(opaEndpoint.getRequestConfig());
+        int gzipThreshold = opaEndpoint.getDataGzipThreshold();
+        if(gzipThreshold > 0 && payload.length > gzipThreshold) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(payload.length / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(payload);
+            }
+            ByteArrayEntity entity = new ByteArrayEntity(compressed.toByteArray(), contentType);
+            entity.setContentEncoding("gzip");
+            request.setEntity(entity);
+        } else {
+            request.setEntity(new ByteArrayEntity(payload, contentType));
+        }
+
+        try {
+            return opaEndpoint.getConnectionPool()
+                    .execute(request, httpResponse -> httpResponse.getStatusLine().getStatusCode(), true)
+                    .join();
+        } catch(Exception e) {
+            Exception cause = OpaDecision.failure(e).getException();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private static final class Document {
+        private JsonElement sent;
+    }
+}
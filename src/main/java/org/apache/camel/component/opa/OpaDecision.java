@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Outcome of an OPA evaluation: allowed, not allowed, an error answer from OPA or a failure to call it.
+ */
+public final class OpaDecision {
+
+    private static final OpaDecision ALLOWED = new OpaDecision(true, false, null, null, false, null);
+    private static final OpaDecision DENIED = new OpaDecision(false, true, "OPA returned not allowed", null, false, null);
+
+    private final boolean allowed;
+    private final boolean denied;
+    private final String message;
+    private final Exception exception;
+    private final boolean retryable;
+    private final List<OpaDecision> decisions;
+
+    private OpaDecision(boolean allowed, boolean denied, String message, Exception exception, boolean retryable, List<OpaDecision> decisions) {
+        this.allowed = allowed;
+        this.denied = denied;
+        this.message = message;
+        this.exception = exception;
+        this.retryable = retryable;
+        this.decisions = decisions;
+    }
+
+    public static OpaDecision allow() {
+        return ALLOWED;
+    }
+
+    public static OpaDecision deny() {
+        return DENIED;
+    }
+
+    /**
+     * Not allowed, with a message telling why
+     */
+    public static OpaDecision deny(String message) {
+        return new OpaDecision(false, true, message, null, false, null);
+    }
+
+    public static OpaDecision error(String message) {
+        return new OpaDecision(false, false, message, null, false, null);
+    }
+
+    /**
+     * An error answer telling that the OPA instance could not evaluate the query, such as a 5xx status
+     */
+    public static OpaDecision unavailable(String message) {
+        return new OpaDecision(false, false, message, null, true, null);
+    }
+
+    /**
+     * The answer of OPA to a batch, holding one decision per input. OPA answered, so the batch itself is allowed.
+     */
+    public static OpaDecision batch(List<OpaDecision> decisions) {
+        return new OpaDecision(true, false, null, null, false, decisions);
+    }
+
+    public static OpaDecision failure(Throwable throwable) {
+        while((throwable instanceof CompletionException || throwable instanceof ExecutionException)
+                && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        Exception exception = throwable instanceof Exception ? (Exception) throwable : new Exception(throwable);
+        return new OpaDecision(false, false, exception.getMessage(), exception, true, null);
+    }
+
+    /**
+     * The same decision with its message prefixed by the source of the decision, such as the policy that gave it
+     */
+    public OpaDecision from(String source) {
+        if(allowed) {
+            return this;
+        }
+        Exception sourceException = exception != null ? new Exception(source + ": " + exception.getMessage(), exception) : null;
+        return new OpaDecision(false, denied, source + ": " + message, sourceException, retryable, null);
+    }
+
+    public boolean isAllowed() {
+        return allowed;
+    }
+
+    /**
+     * True when OPA answered and the answer was not allowed
+     */
+    public boolean isDenied() {
+        return denied;
+    }
+
+    /**
+     * True when OPA could not be called or did not answer with a decision
+     */
+    public boolean isError() {
+        return !allowed && !denied;
+    }
+
+    /**
+     * True when another OPA instance might answer, that is when the call failed or OPA was unavailable
+     */
+    public boolean isRetryable() {
+        return retryable;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public Exception getException() {
+        return exception;
+    }
+
+    /**
+     * The decision for each input of a batch, or null when the decision is not the answer to a batch
+     */
+    public List<OpaDecision> getDecisions() {
+        return decisions;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.camel.support.LRUCacheFactory;
+
+/**
+ * Bounded cache of OPA decisions keyed on the canonical input. Allowed and not allowed decisions have their
+ * own time to live, errors are only cached when a time to live is configured for them.
+ *
+ * Eviction is LRU, or W-TinyLFU when camel-caffeine-lrucache is on the classpath.
+ */
+public class OpaDecisionCache {
+
+    private final Map<OpaInputKey, Entry> cache;
+    private final long allowTtl;
+    private final long denyTtl;
+    private final long errorTtl;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public OpaDecisionCache(int maximumSize, int allowTtl, int denyTtl, int errorTtl) {
+        this.cache = LRUCacheFactory.newLRUCache(maximumSize, entry -> evictions.increment());
+        this.allowTtl = TimeUnit.SECONDS.toNanos(allowTtl);
+        this.denyTtl = TimeUnit.SECONDS.toNanos(denyTtl);
+        this.errorTtl = TimeUnit.SECONDS.toNanos(errorTtl);
+    }
+
+    public OpaDecision get(OpaInputKey key) {
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(key);
+            if(entry != null && entry.expiresAt - System.nanoTime() <= 0) {
+                cache.remove(key);
+                entry = null;
+            }
+        }
+        if(entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.decision;
+    }
+
+    public void put(OpaInputKey key, OpaDecision decision) {
+        long ttl = decision.isAllowed() ? allowTtl : decision.isDenied() ? denyTtl : errorTtl;
+        if(ttl <= 0) {
+            return;
+        }
+        synchronized (cache) {
+            cache.put(key, new Entry(decision, System.nanoTime() + ttl));
+        }
+    }
+
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private static final class Entry {
+        private final OpaDecision decision;
+        private final long expiresAt;
+
+        private Entry(OpaDecision decision, long expiresAt) {
+            this.decision = decision;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
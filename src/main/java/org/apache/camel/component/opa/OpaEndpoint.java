@@ -16,18 +16,27 @@
  */
 package org.apache.camel.component.opa;
 
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
 import lombok.extern.slf4j.Slf4j;
 import org.apache.camel.*;
+import org.apache.camel.api.management.ManagedAttribute;
+import org.apache.camel.api.management.ManagedOperation;
+import org.apache.camel.api.management.ManagedResource;
 import org.apache.camel.spi.Metadata;
 import org.apache.camel.spi.UriEndpoint;
 import org.apache.camel.spi.UriPath;
 import org.apache.camel.support.DefaultEndpoint;
+import org.apache.http.client.config.RequestConfig;
 
 /**
  * Perform authorization on Open Policy Agent server.
  */
 @Slf4j
-@UriEndpoint(firstVersion = "1.5.0", scheme = "opa", title = "OPA", syntax = "opa:endpoint", producerOnly = true, category = {Category.API})
+@ManagedResource(description = "Managed OPA Endpoint")
+@UriEndpoint(firstVersion = "1.5.0", scheme = "opa", title = "OPA", syntax = "opa:endpoint", category = {Category.API})
 public class OpaEndpoint extends DefaultEndpoint {
 
     @UriPath
@@ -48,13 +57,198 @@ public class OpaEndpoint extends DefaultEndpoint {
     @UriPath
     private OpaOperationType operationType;
 
+    @UriPath(defaultValue = "20")
+    private int maxConnectionsPerRoute = 20;
+
+    @UriPath(defaultValue = "200")
+    private int maxTotalConnections = 200;
+
+    @UriPath
+    private int connectionTimeToLive;
+
+    @UriPath
+    private int keepAliveTimeout;
+
+    @UriPath(defaultValue = "30")
+    private int idleConnectionTimeout = 30;
+
+    @UriPath
+    private int decisionCacheSize;
+
+    @UriPath(defaultValue = "60")
+    private int decisionCacheAllowTtl = 60;
+
+    @UriPath(defaultValue = "60")
+    private int decisionCacheDenyTtl = 60;
+
+    @UriPath
+    private int decisionCacheErrorTtl;
+
+    @UriPath
+    private boolean coalesceRequests;
+
+    @UriPath
+    private int batchSize;
+
+    @UriPath(defaultValue = "5")
+    private int batchMaxDelayMs = 5;
+
+    @UriPath(defaultValue = "1000")
+    private int batchQueueSize = 1000;
+
+    @UriPath
+    private String batchPath;
+
+    @UriPath
+    private String inputTemplate;
+
+    @UriPath
+    private String wasmBundle;
+
+    @UriPath
+    private String wasmEntrypoint;
+
+    @UriPath
+    private int wasmPoolSize;
+
+    @UriPath(defaultValue = "5")
+    private int wasmReloadInterval = 5;
+
+    @UriPath
+    private String instances;
+
+    @UriPath(defaultValue = "ROUND_ROBIN")
+    private OpaLoadBalancerType loadBalancer = OpaLoadBalancerType.ROUND_ROBIN;
+
+    @UriPath(defaultValue = "3")
+    private int ejectionThreshold = 3;
+
+    @UriPath(defaultValue = "30")
+    private int ejectionCooldown = 30;
+
+    @UriPath
+    private int healthCheckInterval;
+
+    @UriPath
+    private String policySource;
+
+    @UriPath(defaultValue = "4")
+    private int policyUploadConcurrency = 4;
+
+    @UriPath(defaultValue = "30")
+    private int aclRefreshInterval = 30;
+
+    @UriPath
+    private int dataGzipThreshold;
+
+    @UriPath
+    private String compileUnknowns;
+
+    @UriPath(defaultValue = "300")
+    private int compileCacheTtl = 300;
+
+    @UriPath(defaultValue = "1000")
+    private int compileCacheSize = 1000;
+
+    @UriPath
+    private String unixSocketPath;
+
+    @UriPath(label = "consumer")
+    private boolean splitDecisions;
+
+    @UriPath(label = "consumer", defaultValue = "4")
+    private int maxConcurrentUploads = 4;
+
+    @UriPath
+    private boolean hedging;
+
+    @UriPath
+    private int hedgeDelay;
+
+    @UriPath(defaultValue = "10")
+    private int hedgeRatio = 10;
+
+    @UriPath
+    private boolean circuitBreaker;
+
+    @UriPath(defaultValue = "20")
+    private int circuitBreakerWindowSize = 20;
+
+    @UriPath(defaultValue = "50")
+    private int circuitBreakerFailureRate = 50;
+
+    @UriPath
+    private int circuitBreakerSlowCallThreshold;
+
+    @UriPath(defaultValue = "30")
+    private int circuitBreakerOpenDuration = 30;
+
+    @UriPath(defaultValue = "3")
+    private int circuitBreakerHalfOpenCalls = 3;
+
+    @UriPath(defaultValue = "DENY")
+    private OpaFallbackDecision circuitBreakerFallback = OpaFallbackDecision.DENY;
+
+    @UriPath
+    private String policies;
+
+    @UriPath(defaultValue = "ALL_ALLOW")
+    private OpaPolicyCombination policyCombination = OpaPolicyCombination.ALL_ALLOW;
+
+    @UriPath(defaultValue = "resource")
+    private String filterInputField = "resource";
+
+    @UriPath(defaultValue = "16")
+    private int filterConcurrency = 16;
+
+    @UriPath
+    private int bulkheadMaxConcurrentCalls;
+
+    @UriPath
+    private int bulkheadQueueSize;
+
+    @UriPath(defaultValue = "FAIL")
+    private OpaBulkheadRejectPolicy bulkheadRejectPolicy = OpaBulkheadRejectPolicy.FAIL;
+
+    @UriPath
+    private boolean bulkheadExecutor;
+
+    private String opaUrl;
+    private String opaBaseUrl;
+    private List<String> policyPaths;
+    private RequestConfig requestConfig;
+    private OpaInputTemplate compiledInputTemplate;
+    private String connectionPoolKey;
+    private volatile OpaConnectionPool connectionPool;
+    private OpaDecisionCache decisionCache;
+    private OpaRequestCoalescer requestCoalescer;
+    private OpaBatcher batcher;
+    private OpaWasmEvaluator wasmEvaluator;
+    private OpaLoadBalancer opaLoadBalancer;
+    private OpaCircuitBreaker opaCircuitBreaker;
+    private OpaBulkhead bulkhead;
+    private OpaHedger opaHedger;
+    private OpaPolicySync policySync;
+    private OpaAclSnapshot aclSnapshot;
+    private OpaDataPush dataPush;
+    private OpaPartialEvaluator partialEvaluator;
+    private final OpaMetrics metrics = new OpaMetrics();
+    private OpaMicrometerMetrics micrometerMetrics;
+
     protected OpaEndpoint(String endpointUri, OpaComponent component) {
         super(endpointUri, component);
     }
 
+    @Override
+    public OpaComponent getComponent() {
+        return (OpaComponent) super.getComponent();
+    }
+
     @Override
     public Consumer createConsumer(Processor processor) throws Exception {
-        throw new RuntimeCamelException("An OPA Consumer would be the OPA server itself! No such support here");
+        OpaConsumer consumer = new OpaConsumer(this, processor);
+        configureConsumer(consumer);
+        return consumer;
     }
 
     @Override
@@ -62,75 +256,1267 @@ public class OpaEndpoint extends DefaultEndpoint {
         return new OpaProducer(this);
     }
 
-    public boolean getSecure() {
-        return secure;
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        opaUrl = transformOpaEndpoint();
+        requestConfig = createRequestConfig();
+
+        if(inputTemplate != null) {
+            compiledInputTemplate = OpaInputTemplate.compile(getCamelContext(), inputTemplate);
+        }
+
+        URI uri = URI.create(opaUrl);
+        opaBaseUrl = uri.getScheme() + "://" + uri.getAuthority();
+        connectionPoolKey = opaBaseUrl;
+        if(unixSocketPath != null) {
+            if(secure) {
+                throw new IllegalArgumentException("An OPA endpoint cannot be both secure and reached over the Unix domain socket " + unixSocketPath);
+            }
+            connectionPoolKey = "unix://" + unixSocketPath;
+        }
+
+        if(policies != null && !policies.trim().isEmpty()) {
+            policyPaths = new ArrayList<>();
+            policyPaths.add(opaUrl.substring(opaBaseUrl.length()));
+            for(String policy : policies.split(",")) {
+                if(!policy.trim().isEmpty()) {
+                    policyPaths.add(policy.trim().startsWith("/") ? policy.trim() : "/" + policy.trim());
+                }
+            }
+            if(compileUnknowns != null) {
+                // a residual policy would decide alone, without asking the other policies
+                throw new IllegalArgumentException("Partial evaluation applies to a single policy, compileUnknowns cannot be set on the endpoint "
+                        + getEndpointUri() + " evaluating " + policyPaths);
+            }
+            if(wasmBundle != null || batchSize > 1) {
+                log.warn("Wasm evaluation and batching apply to a single policy, they are not used by the endpoint {} evaluating {}",
+                        getEndpointUri(), policyPaths);
+            }
+        }
+
+        if(instances != null && !instances.trim().isEmpty()) {
+            opaLoadBalancer = new OpaLoadBalancer(this);
+            opaLoadBalancer.start();
+        }
+
+        if(decisionCacheSize > 0) {
+            decisionCache = new OpaDecisionCache(decisionCacheSize, decisionCacheAllowTtl, decisionCacheDenyTtl, decisionCacheErrorTtl);
+        }
+
+        if(compileUnknowns != null && (operationType == OpaOperationType.QUERY || operationType == OpaOperationType.FILTER)) {
+            partialEvaluator = new OpaPartialEvaluator(this);
+            partialEvaluator.start();
+        }
+
+        if(operationType == OpaOperationType.POLICY) {
+            policySync = new OpaPolicySync(this);
+            policySync.start();
+        }
+
+        if(operationType == OpaOperationType.ACL) {
+            aclSnapshot = new OpaAclSnapshot(this);
+            aclSnapshot.start();
+        }
+
+        if(operationType == OpaOperationType.DATA) {
+            dataPush = new OpaDataPush(this);
+        }
+
+        if(hedging) {
+            if(isSynchronous()) {
+                log.warn("Hedging needs asynchronous requests, it is disabled on the synchronous endpoint {}", getEndpointUri());
+            } else if(unixSocketPath != null) {
+                log.warn("Requests over a Unix domain socket are blocking, hedging is disabled on the endpoint {}", getEndpointUri());
+            } else {
+                opaHedger = new OpaHedger(this);
+                opaHedger.start();
+            }
+        }
+
+        if(circuitBreaker) {
+            opaCircuitBreaker = new OpaCircuitBreaker(this);
+        }
+
+        if(bulkheadMaxConcurrentCalls > 0) {
+            bulkhead = new OpaBulkhead(this);
+            bulkhead.start();
+        }
+
+        if(coalesceRequests) {
+            requestCoalescer = new OpaRequestCoalescer();
+        }
+
+        if(batchSize > 1) {
+            batcher = new OpaBatcher(this);
+            batcher.start();
+        }
+
+        if(wasmBundle != null) {
+            wasmEvaluator = new OpaWasmEvaluator(this);
+            wasmEvaluator.start();
+        }
+
+        if(getCamelContext().getClassResolver().resolveClass("io.micrometer.core.instrument.MeterRegistry") != null) {
+            micrometerMetrics = OpaMicrometerMetrics.bind(this);
+        }
     }
 
-    public boolean getHandleError() {
-        return handleError;
+    @Override
+    protected void doStop() throws Exception {
+        if(micrometerMetrics != null) {
+            micrometerMetrics.unbind();
+            micrometerMetrics = null;
+        }
+        if(wasmEvaluator != null) {
+            wasmEvaluator.stop();
+            wasmEvaluator = null;
+        }
+        if(batcher != null) {
+            batcher.stop();
+            batcher = null;
+        }
+        if(bulkhead != null) {
+            bulkhead.stop();
+            bulkhead = null;
+        }
+        if(opaHedger != null) {
+            opaHedger.stop();
+            opaHedger = null;
+        }
+        if(partialEvaluator != null) {
+            partialEvaluator.stop();
+        }
+        if(policySync != null) {
+            policySync.stop();
+            policySync = null;
+        }
+        if(aclSnapshot != null) {
+            aclSnapshot.stop();
+            aclSnapshot = null;
+        }
+        if(dataPush != null) {
+            dataPush.stop();
+            dataPush = null;
+        }
+        if(opaLoadBalancer != null) {
+            opaLoadBalancer.stop();
+            opaLoadBalancer = null;
+        }
+        synchronized(this) {
+            connectionPoolKey = null;
+            if(connectionPool != null) {
+                if(getComponent().isSharedConnectionPool()) {
+                    getComponent().releaseConnectionPool(connectionPool);
+                } else {
+                    connectionPool.close();
+                }
+                connectionPool = null;
+            }
+        }
+        decisionCache = null;
+        requestCoalescer = null;
+        partialEvaluator = null;
+        opaCircuitBreaker = null;
+        policyPaths = null;
+        super.doStop();
     }
 
-    public int getConnectTimeout() {
-        return connectTimeout;
+    private String transformOpaEndpoint() {
+        String opaEndpoint = getEndpointBaseUri();
+
+        if(secure) {
+            return "https://" + opaEndpoint.substring(6);
+        } else {
+            return "http://" + opaEndpoint.substring(6);
+        }
     }
 
-    public int getConnectionRequestTimeout() {
-        return connectionRequestTimeout;
+    private RequestConfig createRequestConfig() {
+        RequestConfig.Builder requestConfigBuilder = RequestConfig.custom();
+
+        if(connectTimeout > 0) {
+            requestConfigBuilder.setConnectTimeout(connectTimeout * 1000);
+        }
+
+        if(connectionRequestTimeout > 0) {
+            requestConfigBuilder.setConnectionRequestTimeout(connectionRequestTimeout * 1000);
+        }
+
+        if(socketTimeout > 0) {
+            requestConfigBuilder.setSocketTimeout(socketTimeout * 1000);
+        }
+
+        return requestConfigBuilder.build();
     }
 
-    public int getSocketTimeout() {
-        return socketTimeout;
+    /**
+     * The HTTP(S) URL of the OPA server, resolved when the endpoint is started
+     */
+    public String getOpaUrl() {
+        return opaUrl;
     }
 
     /**
-     * If true the OPA agent will be called on HTTPS
-     * @param secure
+     * The scheme and authority of the OPA server, such as http://localhost:8181
      */
-    public void setSecure(boolean secure) {
-        this.secure = secure;
+    public String getOpaBaseUrl() {
+        return opaBaseUrl;
     }
 
     /**
-     * If true OPA Component will send the exception in the In header as OPA-Exception
-     * @param handleError
+     * The paths of the policies evaluated for every exchange, starting with the path of the endpoint, or null
+     * when the endpoint evaluates a single policy
      */
-    public void setHandleError(boolean handleError) {
-        this.handleError = handleError;
+    public List<String> getPolicyPaths() {
+        return policyPaths;
     }
 
     /**
-     * Connect timeout in seconds
-     * @param connectTimeout
+     * The timeouts applied to every request sent to OPA
      */
-    public void setConnectTimeout(int connectTimeout) {
-        this.connectTimeout = connectTimeout;
+    public RequestConfig getRequestConfig() {
+        return requestConfig;
     }
 
     /**
-     * Connection Request timeout in seconds
-     * @param connectionRequestTimeout
+     * The compiled input template, or null when the input is taken from the message body
      */
-    public void setConnectionRequestTimeout(int connectionRequestTimeout) {
-        this.connectionRequestTimeout = connectionRequestTimeout;
+    public OpaInputTemplate getCompiledInputTemplate() {
+        return compiledInputTemplate;
     }
 
     /**
-     * Socket timeout in seconds
-     * @param socketTimeout
+     * The connection pool, created the first time OPA is called so that an endpoint only used as a consumer
+     * has none
      */
-    public void setSocketTimeout(int socketTimeout) {
-        this.socketTimeout = socketTimeout;
+    public OpaConnectionPool getConnectionPool() {
+        OpaConnectionPool pool = connectionPool;
+        if(pool == null) {
+            synchronized(this) {
+                pool = connectionPool;
+                if(pool == null) {
+                    if(connectionPoolKey == null) {
+                        throw new IllegalStateException("The OPA endpoint " + getEndpointUri() + " is not started");
+                    }
+                    pool = getComponent().isSharedConnectionPool()
+                            ? getComponent().acquireConnectionPool(connectionPoolKey, this)
+                            : new OpaConnectionPool(connectionPoolKey, this);
+                    connectionPool = pool;
+                }
+            }
+        }
+        return pool;
     }
 
-    public OpaOperationType getOperationType() {
-        return operationType;
+    /**
+     * The decision cache, or null when decisionCacheSize is 0
+     */
+    public OpaDecisionCache getDecisionCache() {
+        return decisionCache;
+    }
+
+    @ManagedAttribute(description = "Decisions served from the decision cache")
+    public long getDecisionCacheHits() {
+        return decisionCache != null ? decisionCache.getHits() : 0;
+    }
+
+    @ManagedAttribute(description = "Decisions not found in the decision cache")
+    public long getDecisionCacheMisses() {
+        return decisionCache != null ? decisionCache.getMisses() : 0;
+    }
+
+    @ManagedAttribute(description = "Decisions evicted from the decision cache")
+    public long getDecisionCacheEvictions() {
+        return decisionCache != null ? decisionCache.getEvictions() : 0;
     }
 
     /**
-     * Set the operation type: Query, ACL (access control list) or Policy
-     * @param operationType
+     * The request coalescer, or null when coalesceRequests is false
      */
-    public void setOperationType(OpaOperationType operationType) {
-        this.operationType = operationType;
+    public OpaRequestCoalescer getRequestCoalescer() {
+        return requestCoalescer;
+    }
+
+    /**
+     * The batcher, or null when batchSize is lower than 2
+     */
+    public OpaBatcher getBatcher() {
+        return batcher;
+    }
+
+    /**
+     * The embedded Wasm evaluator, or null when no wasmBundle is configured
+     */
+    public OpaWasmEvaluator getWasmEvaluator() {
+        return wasmEvaluator;
+    }
+
+    /**
+     * The load balancer over the OPA instances, or null when the endpoint has a single instance
+     */
+    public OpaLoadBalancer getOpaLoadBalancer() {
+        return opaLoadBalancer;
+    }
+
+    @ManagedAttribute(description = "OPA instances currently ejected by the load balancer")
+    public String getEjectedInstances() {
+        if(opaLoadBalancer == null) {
+            return "";
+        }
+        long now = System.nanoTime();
+        StringBuilder ejected = new StringBuilder();
+        for(OpaInstance instance : opaLoadBalancer.getInstances()) {
+            if(instance.isEjected(now)) {
+                ejected.append(ejected.length() > 0 ? "," : "").append(instance);
+            }
+        }
+        return ejected.toString();
+    }
+
+    /**
+     * The policy uploader of a POLICY endpoint
+     */
+    public OpaPolicySync getPolicySync() {
+        return policySync;
+    }
+
+    /**
+     * The ACL snapshot of an ACL endpoint
+     */
+    public OpaAclSnapshot getAclSnapshot() {
+        return aclSnapshot;
+    }
+
+    @ManagedAttribute(description = "Refreshes of the ACL snapshot")
+    public long getAclRefreshes() {
+        return aclSnapshot != null ? aclSnapshot.getRefreshes() : 0;
+    }
+
+    @ManagedAttribute(description = "Refreshes of the ACL snapshot that found the document unchanged")
+    public long getAclUnchangedRefreshes() {
+        return aclSnapshot != null ? aclSnapshot.getUnchanged() : 0;
+    }
+
+    @ManagedOperation(description = "Refresh the ACL snapshot now")
+    public void refreshAcl() {
+        if(aclSnapshot != null) {
+            aclSnapshot.refresh();
+        }
+    }
+
+    /**
+     * The data pusher of a DATA endpoint
+     */
+    public OpaDataPush getDataPush() {
+        return dataPush;
+    }
+
+    /**
+     * The partial evaluator, or null when no compileUnknowns are configured
+     */
+    public OpaPartialEvaluator getPartialEvaluator() {
+        return partialEvaluator;
+    }
+
+    @ManagedAttribute(description = "Exchanges evaluated in-process from a residual policy")
+    public long getPartialEvaluations() {
+        return partialEvaluator != null ? partialEvaluator.getEvaluations() : 0;
+    }
+
+    @ManagedAttribute(description = "Exchanges sent to OPA for lack of a usable residual policy")
+    public long getPartialEvaluationFallbacks() {
+        return partialEvaluator != null ? partialEvaluator.getFallbacks() : 0;
+    }
+
+    /**
+     * The hedger, or null when hedging is false, the endpoint is synchronous or goes through a Unix domain socket
+     */
+    public OpaHedger getOpaHedger() {
+        return opaHedger;
+    }
+
+    @ManagedAttribute(description = "Hedged requests sent to OPA")
+    public long getHedgesIssued() {
+        return opaHedger != null ? opaHedger.getIssued() : 0;
+    }
+
+    @ManagedAttribute(description = "Hedged requests that answered before the first request")
+    public long getHedgesWon() {
+        return opaHedger != null ? opaHedger.getWon() : 0;
+    }
+
+    /**
+     * The circuit breaker, or null when circuitBreaker is false
+     */
+    public OpaCircuitBreaker getOpaCircuitBreaker() {
+        return opaCircuitBreaker;
+    }
+
+    @ManagedAttribute(description = "State of the circuit breaker: CLOSED, OPEN or HALF_OPEN")
+    public String getCircuitBreakerState() {
+        return opaCircuitBreaker != null ? opaCircuitBreaker.getState().name() : "";
+    }
+
+    @ManagedAttribute(description = "Percentage of failed calls in the circuit breaker window")
+    public double getCircuitBreakerObservedFailureRate() {
+        return opaCircuitBreaker != null ? opaCircuitBreaker.getFailureRate() : 0;
+    }
+
+    @ManagedAttribute(description = "Times the circuit breaker opened")
+    public long getCircuitBreakerOpenedCount() {
+        return opaCircuitBreaker != null ? opaCircuitBreaker.getOpened() : 0;
+    }
+
+    @ManagedAttribute(description = "Exchanges given the fallback decision by the open circuit breaker")
+    public long getCircuitBreakerRejectedCount() {
+        return opaCircuitBreaker != null ? opaCircuitBreaker.getRejected() : 0;
+    }
+
+    /**
+     * The bulkhead, or null when bulkheadMaxConcurrentCalls is 0
+     */
+    public OpaBulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    @ManagedAttribute(description = "OPA calls in flight through the bulkhead")
+    public int getBulkheadInFlight() {
+        return bulkhead != null ? bulkhead.getInFlight() : 0;
+    }
+
+    @ManagedAttribute(description = "OPA calls waiting for a slot of the bulkhead")
+    public int getBulkheadQueued() {
+        return bulkhead != null ? bulkhead.getQueued() : 0;
+    }
+
+    @ManagedAttribute(description = "OPA calls rejected by the full bulkhead")
+    public long getBulkheadRejectedCount() {
+        return bulkhead != null ? bulkhead.getRejected() : 0;
+    }
+
+    @ManagedOperation(description = "Close the circuit breaker and clear its window")
+    public void resetCircuitBreaker() {
+        if(opaCircuitBreaker != null) {
+            opaCircuitBreaker.reset();
+        }
+    }
+
+    @ManagedAttribute(description = "Exchanges that joined an identical in-flight OPA request")
+    public long getCoalescedRequests() {
+        return requestCoalescer != null ? requestCoalescer.getCoalesced() : 0;
+    }
+
+    public OpaMetrics getMetrics() {
+        return metrics;
+    }
+
+    @ManagedAttribute(description = "Exchanges allowed by OPA")
+    public long getAllowedCount() {
+        return metrics.getAllowed();
+    }
+
+    @ManagedAttribute(description = "Exchanges not allowed by OPA")
+    public long getDeniedCount() {
+        return metrics.getDenied();
+    }
+
+    @ManagedAttribute(description = "Exchanges that failed calling OPA, timeouts excluded")
+    public long getErrorCount() {
+        return metrics.getErrors();
+    }
+
+    @ManagedAttribute(description = "Exchanges that timed out calling OPA")
+    public long getTimeoutCount() {
+        return metrics.getTimeouts();
+    }
+
+    @ManagedAttribute(description = "Requests to OPA in flight")
+    public int getInFlightRequests() {
+        return metrics.getInFlight();
+    }
+
+    @ManagedAttribute(description = "Bytes sent to OPA")
+    public long getBytesSent() {
+        return metrics.getBytesSent();
+    }
+
+    @ManagedAttribute(description = "Bytes received from OPA")
+    public long getBytesReceived() {
+        return metrics.getBytesReceived();
+    }
+
+    @ManagedAttribute(description = "Median time in millis to process an exchange")
+    public double getTotalTimeP50() {
+        return metrics.getTotalTime().getPercentile(50);
+    }
+
+    @ManagedAttribute(description = "95th percentile time in millis to process an exchange")
+    public double getTotalTimeP95() {
+        return metrics.getTotalTime().getPercentile(95);
+    }
+
+    @ManagedAttribute(description = "99th percentile time in millis to process an exchange")
+    public double getTotalTimeP99() {
+        return metrics.getTotalTime().getPercentile(99);
+    }
+
+    @ManagedAttribute(description = "Median time in millis waiting for a pooled connection")
+    public double getLeaseWaitP50() {
+        return metrics.getLeaseWait().getPercentile(50);
+    }
+
+    @ManagedAttribute(description = "95th percentile time in millis waiting for a pooled connection")
+    public double getLeaseWaitP95() {
+        return metrics.getLeaseWait().getPercentile(95);
+    }
+
+    @ManagedAttribute(description = "99th percentile time in millis waiting for a pooled connection")
+    public double getLeaseWaitP99() {
+        return metrics.getLeaseWait().getPercentile(99);
+    }
+
+    @ManagedAttribute(description = "Median time in millis for OPA to respond")
+    public double getServerResponseP50() {
+        return metrics.getServerResponse().getPercentile(50);
+    }
+
+    @ManagedAttribute(description = "95th percentile time in millis for OPA to respond")
+    public double getServerResponseP95() {
+        return metrics.getServerResponse().getPercentile(95);
+    }
+
+    @ManagedAttribute(description = "99th percentile time in millis for OPA to respond")
+    public double getServerResponseP99() {
+        return metrics.getServerResponse().getPercentile(99);
+    }
+
+    @ManagedOperation(description = "Reset the counters and latency statistics")
+    public void resetStatistics() {
+        metrics.reset();
+        if(opaHedger != null) {
+            opaHedger.reset();
+        }
+    }
+
+    public boolean getSecure() {
+        return secure;
+    }
+
+    public boolean getHandleError() {
+        return handleError;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getConnectionRequestTimeout() {
+        return connectionRequestTimeout;
+    }
+
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    /**
+     * If true the OPA agent will be called on HTTPS
+     * @param secure
+     */
+    public void setSecure(boolean secure) {
+        this.secure = secure;
+    }
+
+    /**
+     * If true OPA Component will send the exception in the In header as OPA-Exception
+     * @param handleError
+     */
+    public void setHandleError(boolean handleError) {
+        this.handleError = handleError;
+    }
+
+    /**
+     * Connect timeout in seconds
+     * @param connectTimeout
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Connection Request timeout in seconds
+     * @param connectionRequestTimeout
+     */
+    public void setConnectionRequestTimeout(int connectionRequestTimeout) {
+        this.connectionRequestTimeout = connectionRequestTimeout;
+    }
+
+    /**
+     * Socket timeout in seconds
+     * @param socketTimeout
+     */
+    public void setSocketTimeout(int socketTimeout) {
+        this.socketTimeout = socketTimeout;
+    }
+
+    public OpaOperationType getOperationType() {
+        return operationType;
+    }
+
+    /**
+     * Set the operation type: Query, ACL (access control list), Policy, Data or Filter
+     * @param operationType
+     */
+    public void setOperationType(OpaOperationType operationType) {
+        this.operationType = operationType;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /**
+     * Maximum number of pooled connections per OPA host
+     * @param maxConnectionsPerRoute
+     */
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public int getMaxTotalConnections() {
+        return maxTotalConnections;
+    }
+
+    /**
+     * Maximum number of pooled connections in total
+     * @param maxTotalConnections
+     */
+    public void setMaxTotalConnections(int maxTotalConnections) {
+        this.maxTotalConnections = maxTotalConnections;
+    }
+
+    public int getConnectionTimeToLive() {
+        return connectionTimeToLive;
+    }
+
+    /**
+     * Maximum lifetime in seconds of a pooled connection, 0 means no limit
+     * @param connectionTimeToLive
+     */
+    public void setConnectionTimeToLive(int connectionTimeToLive) {
+        this.connectionTimeToLive = connectionTimeToLive;
+    }
+
+    public int getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    /**
+     * Keep-alive in seconds for connections when OPA does not send a Keep-Alive header, 0 means keep them
+     * until they are evicted as idle
+     * @param keepAliveTimeout
+     */
+    public void setKeepAliveTimeout(int keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    public int getIdleConnectionTimeout() {
+        return idleConnectionTimeout;
+    }
+
+    /**
+     * Pooled connections idle for longer than this many seconds are evicted, 0 disables idle eviction
+     * @param idleConnectionTimeout
+     */
+    public void setIdleConnectionTimeout(int idleConnectionTimeout) {
+        this.idleConnectionTimeout = idleConnectionTimeout;
+    }
+
+    public int getDecisionCacheSize() {
+        return decisionCacheSize;
+    }
+
+    /**
+     * Maximum number of decisions kept in the decision cache, 0 disables the cache
+     * @param decisionCacheSize
+     */
+    public void setDecisionCacheSize(int decisionCacheSize) {
+        this.decisionCacheSize = decisionCacheSize;
+    }
+
+    public int getDecisionCacheAllowTtl() {
+        return decisionCacheAllowTtl;
+    }
+
+    /**
+     * Time to live in seconds of cached allowed decisions
+     * @param decisionCacheAllowTtl
+     */
+    public void setDecisionCacheAllowTtl(int decisionCacheAllowTtl) {
+        this.decisionCacheAllowTtl = decisionCacheAllowTtl;
+    }
+
+    public int getDecisionCacheDenyTtl() {
+        return decisionCacheDenyTtl;
+    }
+
+    /**
+     * Time to live in seconds of cached not allowed decisions
+     * @param decisionCacheDenyTtl
+     */
+    public void setDecisionCacheDenyTtl(int decisionCacheDenyTtl) {
+        this.decisionCacheDenyTtl = decisionCacheDenyTtl;
+    }
+
+    public int getDecisionCacheErrorTtl() {
+        return decisionCacheErrorTtl;
+    }
+
+    /**
+     * Time to live in seconds of cached errors calling OPA, 0 means errors are not cached
+     * @param decisionCacheErrorTtl
+     */
+    public void setDecisionCacheErrorTtl(int decisionCacheErrorTtl) {
+        this.decisionCacheErrorTtl = decisionCacheErrorTtl;
+    }
+
+    public boolean getCoalesceRequests() {
+        return coalesceRequests;
+    }
+
+    /**
+     * If true concurrent exchanges with the same input share a single in-flight OPA request
+     * @param coalesceRequests
+     */
+    public void setCoalesceRequests(boolean coalesceRequests) {
+        this.coalesceRequests = coalesceRequests;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Maximum number of exchanges evaluated in a single OPA request, batching is enabled from 2
+     * @param batchSize
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchMaxDelayMs() {
+        return batchMaxDelayMs;
+    }
+
+    /**
+     * Maximum time in milliseconds the first exchange of a batch waits for the batch to fill up
+     * @param batchMaxDelayMs
+     */
+    public void setBatchMaxDelayMs(int batchMaxDelayMs) {
+        this.batchMaxDelayMs = batchMaxDelayMs;
+    }
+
+    public int getBatchQueueSize() {
+        return batchQueueSize;
+    }
+
+    /**
+     * Maximum number of exchanges waiting to be batched, further exchanges block until there is room
+     * @param batchQueueSize
+     */
+    public void setBatchQueueSize(int batchQueueSize) {
+        this.batchQueueSize = batchQueueSize;
+    }
+
+    public String getBatchPath() {
+        return batchPath;
+    }
+
+    /**
+     * Path of the batch-capable policy taking an array of inputs, by default the endpoint path
+     * @param batchPath
+     */
+    public void setBatchPath(String batchPath) {
+        this.batchPath = batchPath;
+    }
+
+    public String getInputTemplate() {
+        return inputTemplate;
+    }
+
+    /**
+     * Builds the OPA input from the exchange instead of the message body, as a comma separated list of
+     * field=expression pairs using the simple language, for example user=${header.user},action=${header.action}
+     * @param inputTemplate
+     */
+    public void setInputTemplate(String inputTemplate) {
+        this.inputTemplate = inputTemplate;
+    }
+
+    public String getWasmBundle() {
+        return wasmBundle;
+    }
+
+    /**
+     * OPA bundle compiled to WebAssembly (bundle.tar.gz or policy.wasm) to evaluate queries in-process instead
+     * of calling OPA, from the classpath (classpath:) or the file system
+     * @param wasmBundle
+     */
+    public void setWasmBundle(String wasmBundle) {
+        this.wasmBundle = wasmBundle;
+    }
+
+    public String getWasmEntrypoint() {
+        return wasmEntrypoint;
+    }
+
+    /**
+     * Entrypoint of the Wasm policy, by default derived from the endpoint path after /v1/data/
+     * @param wasmEntrypoint
+     */
+    public void setWasmEntrypoint(String wasmEntrypoint) {
+        this.wasmEntrypoint = wasmEntrypoint;
+    }
+
+    public int getWasmPoolSize() {
+        return wasmPoolSize;
+    }
+
+    /**
+     * Number of pooled Wasm policy instances, by default the number of processors
+     * @param wasmPoolSize
+     */
+    public void setWasmPoolSize(int wasmPoolSize) {
+        this.wasmPoolSize = wasmPoolSize;
+    }
+
+    public int getWasmReloadInterval() {
+        return wasmReloadInterval;
+    }
+
+    /**
+     * Interval in seconds between checks for changes of a Wasm bundle on the file system, 0 disables reloading
+     * @param wasmReloadInterval
+     */
+    public void setWasmReloadInterval(int wasmReloadInterval) {
+        this.wasmReloadInterval = wasmReloadInterval;
+    }
+
+    public String getInstances() {
+        return instances;
+    }
+
+    /**
+     * Additional OPA instances serving the same policies as the endpoint host, as a comma separated list of
+     * host:port. Requests are spread over all of them and retried on another instance when one fails
+     * @param instances
+     */
+    public void setInstances(String instances) {
+        this.instances = instances;
+    }
+
+    public OpaLoadBalancerType getLoadBalancer() {
+        return loadBalancer;
+    }
+
+    /**
+     * How the OPA instance of a request is chosen: ROUND_ROBIN, LEAST_OUTSTANDING requests or the lowest
+     * expected LATENCY from a moving average of the response times
+     * @param loadBalancer
+     */
+    public void setLoadBalancer(OpaLoadBalancerType loadBalancer) {
+        this.loadBalancer = loadBalancer;
+    }
+
+    public int getEjectionThreshold() {
+        return ejectionThreshold;
+    }
+
+    /**
+     * Consecutive failures after which an OPA instance is ejected from the load balancer
+     * @param ejectionThreshold
+     */
+    public void setEjectionThreshold(int ejectionThreshold) {
+        this.ejectionThreshold = ejectionThreshold;
+    }
+
+    public int getEjectionCooldown() {
+        return ejectionCooldown;
+    }
+
+    /**
+     * Time in seconds an ejected OPA instance is left out before it gets requests again
+     * @param ejectionCooldown
+     */
+    public void setEjectionCooldown(int ejectionCooldown) {
+        this.ejectionCooldown = ejectionCooldown;
+    }
+
+    public int getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
+
+    /**
+     * Interval in seconds between probes of the /health resource of every OPA instance, 0 disables the probes
+     * @param healthCheckInterval
+     */
+    public void setHealthCheckInterval(int healthCheckInterval) {
+        this.healthCheckInterval = healthCheckInterval;
+    }
+
+    public boolean getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Stops calling OPA while too many calls fail or are slow, giving exchanges the circuitBreakerFallback
+     * decision instead
+     * @param circuitBreaker
+     */
+    public void setCircuitBreaker(boolean circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public int getCircuitBreakerWindowSize() {
+        return circuitBreakerWindowSize;
+    }
+
+    /**
+     * Number of the last calls over which the failure rate of the circuit breaker is computed
+     * @param circuitBreakerWindowSize
+     */
+    public void setCircuitBreakerWindowSize(int circuitBreakerWindowSize) {
+        this.circuitBreakerWindowSize = circuitBreakerWindowSize;
+    }
+
+    public int getCircuitBreakerFailureRate() {
+        return circuitBreakerFailureRate;
+    }
+
+    /**
+     * Percentage of failed or slow calls in the window that opens the circuit breaker
+     * @param circuitBreakerFailureRate
+     */
+    public void setCircuitBreakerFailureRate(int circuitBreakerFailureRate) {
+        this.circuitBreakerFailureRate = circuitBreakerFailureRate;
+    }
+
+    public int getCircuitBreakerSlowCallThreshold() {
+        return circuitBreakerSlowCallThreshold;
+    }
+
+    /**
+     * Time in milliseconds after which a call counts as failed for the circuit breaker, 0 only counts errors
+     * @param circuitBreakerSlowCallThreshold
+     */
+    public void setCircuitBreakerSlowCallThreshold(int circuitBreakerSlowCallThreshold) {
+        this.circuitBreakerSlowCallThreshold = circuitBreakerSlowCallThreshold;
+    }
+
+    public int getCircuitBreakerOpenDuration() {
+        return circuitBreakerOpenDuration;
+    }
+
+    /**
+     * Time in seconds the circuit breaker stays open before letting trial calls through
+     * @param circuitBreakerOpenDuration
+     */
+    public void setCircuitBreakerOpenDuration(int circuitBreakerOpenDuration) {
+        this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+    }
+
+    public int getCircuitBreakerHalfOpenCalls() {
+        return circuitBreakerHalfOpenCalls;
+    }
+
+    /**
+     * Number of trial calls that must succeed to close a half-open circuit breaker
+     * @param circuitBreakerHalfOpenCalls
+     */
+    public void setCircuitBreakerHalfOpenCalls(int circuitBreakerHalfOpenCalls) {
+        this.circuitBreakerHalfOpenCalls = circuitBreakerHalfOpenCalls;
+    }
+
+    public OpaFallbackDecision getCircuitBreakerFallback() {
+        return circuitBreakerFallback;
+    }
+
+    /**
+     * Decision given while the circuit breaker is open: DENY, ALLOW, or the LAST_CACHED decision OPA gave for the
+     * same input, denying when there is none
+     * @param circuitBreakerFallback
+     */
+    public void setCircuitBreakerFallback(OpaFallbackDecision circuitBreakerFallback) {
+        this.circuitBreakerFallback = circuitBreakerFallback;
+    }
+
+    public boolean getHedging() {
+        return hedging;
+    }
+
+    /**
+     * Sends a second request when OPA has not answered after hedgeDelay, to another instance when several are
+     * configured, keeping the first answer and cancelling the other request. Only asynchronous endpoints reached
+     * over TCP hedge
+     * @param hedging
+     */
+    public void setHedging(boolean hedging) {
+        this.hedging = hedging;
+    }
+
+    public int getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    /**
+     * Time in milliseconds without an answer after which a hedged request is sent, 0 uses the 95th percentile
+     * of the OPA response times once 100 of them have been observed
+     * @param hedgeDelay
+     */
+    public void setHedgeDelay(int hedgeDelay) {
+        this.hedgeDelay = hedgeDelay;
+    }
+
+    public int getHedgeRatio() {
+        return hedgeRatio;
+    }
+
+    /**
+     * Maximum percentage of the requests that may be hedged
+     * @param hedgeRatio
+     */
+    public void setHedgeRatio(int hedgeRatio) {
+        this.hedgeRatio = hedgeRatio;
+    }
+
+    public String getPolicySource() {
+        return policySource;
+    }
+
+    /**
+     * Directory of .rego modules uploaded by the POLICY operation, on the classpath (classpath:) or the file
+     * system. The module ids are the paths relative to the directory. When not set the modules come from the
+     * message body
+     * @param policySource
+     */
+    public void setPolicySource(String policySource) {
+        this.policySource = policySource;
+    }
+
+    public int getPolicyUploadConcurrency() {
+        return policyUploadConcurrency;
+    }
+
+    /**
+     * Maximum number of modules the POLICY operation uploads in parallel
+     * @param policyUploadConcurrency
+     */
+    public void setPolicyUploadConcurrency(int policyUploadConcurrency) {
+        this.policyUploadConcurrency = policyUploadConcurrency;
+    }
+
+    public int getAclRefreshInterval() {
+        return aclRefreshInterval;
+    }
+
+    /**
+     * Interval in seconds between refreshes of the document the ACL operation checks against, 0 only loads it
+     * when the endpoint starts
+     * @param aclRefreshInterval
+     */
+    public void setAclRefreshInterval(int aclRefreshInterval) {
+        this.aclRefreshInterval = aclRefreshInterval;
+    }
+
+    public int getDataGzipThreshold() {
+        return dataGzipThreshold;
+    }
+
+    /**
+     * Size in bytes above which the DATA operation gzips the documents and patches it sends, 0 never compresses
+     * @param dataGzipThreshold
+     */
+    public void setDataGzipThreshold(int dataGzipThreshold) {
+        this.dataGzipThreshold = dataGzipThreshold;
+    }
+
+    public String getCompileUnknowns() {
+        return compileUnknowns;
+    }
+
+    /**
+     * Comma separated input fields that change with every request, such as input.request. Setting them makes
+     * the QUERY operation partially evaluate the policy with the Compile API once per value of the other input
+     * fields, and evaluate the residual policy in-process when it is simple enough
+     * @param compileUnknowns
+     */
+    public void setCompileUnknowns(String compileUnknowns) {
+        this.compileUnknowns = compileUnknowns;
+    }
+
+    public int getCompileCacheTtl() {
+        return compileCacheTtl;
+    }
+
+    /**
+     * Time in seconds a residual policy is used before it is compiled again
+     * @param compileCacheTtl
+     */
+    public void setCompileCacheTtl(int compileCacheTtl) {
+        this.compileCacheTtl = compileCacheTtl;
+    }
+
+    public int getCompileCacheSize() {
+        return compileCacheSize;
+    }
+
+    /**
+     * Maximum number of residual policies kept, one per distinct value of the input without the unknowns
+     * @param compileCacheSize
+     */
+    public void setCompileCacheSize(int compileCacheSize) {
+        this.compileCacheSize = compileCacheSize;
+    }
+
+    public boolean getSplitDecisions() {
+        return splitDecisions;
+    }
+
+    /**
+     * Whether the consumer routes one exchange per decision of the decision log batches uploaded by OPA, instead
+     * of one exchange per batch
+     * @param splitDecisions
+     */
+    public void setSplitDecisions(boolean splitDecisions) {
+        this.splitDecisions = splitDecisions;
+    }
+
+    public int getMaxConcurrentUploads() {
+        return maxConcurrentUploads;
+    }
+
+    /**
+     * Maximum number of decision log batches the consumer processes at once, further uploads are answered with
+     * 429 Too Many Requests so that OPA retries them later
+     * @param maxConcurrentUploads
+     */
+    public void setMaxConcurrentUploads(int maxConcurrentUploads) {
+        this.maxConcurrentUploads = maxConcurrentUploads;
+    }
+
+    public String getUnixSocketPath() {
+        return unixSocketPath;
+    }
+
+    /**
+     * Path of the Unix domain socket OPA listens on, such as a sidecar started with --addr unix:///var/run/opa.sock.
+     * When set, requests go through the socket instead of TCP, whatever the host of the endpoint. Needs Java 16 or later
+     * @param unixSocketPath
+     */
+    public void setUnixSocketPath(String unixSocketPath) {
+        this.unixSocketPath = unixSocketPath;
+    }
+
+    public int getBulkheadMaxConcurrentCalls() {
+        return bulkheadMaxConcurrentCalls;
+    }
+
+    /**
+     * Maximum number of OPA calls in flight for the endpoint, 0 to disable the bulkhead. Decisions served from the
+     * cache or a residual policy do not count
+     * @param bulkheadMaxConcurrentCalls
+     */
+    public void setBulkheadMaxConcurrentCalls(int bulkheadMaxConcurrentCalls) {
+        this.bulkheadMaxConcurrentCalls = bulkheadMaxConcurrentCalls;
+    }
+
+    public int getBulkheadQueueSize() {
+        return bulkheadQueueSize;
+    }
+
+    /**
+     * Number of OPA calls that wait for a slot of the bulkhead, without holding a thread, before calls get rejected
+     * @param bulkheadQueueSize
+     */
+    public void setBulkheadQueueSize(int bulkheadQueueSize) {
+        this.bulkheadQueueSize = bulkheadQueueSize;
+    }
+
+    public OpaBulkheadRejectPolicy getBulkheadRejectPolicy() {
+        return bulkheadRejectPolicy;
+    }
+
+    /**
+     * Decision given to the calls rejected by the full bulkhead: FAIL handles them as an OPA error, DENY or ALLOW
+     * apply that decision
+     * @param bulkheadRejectPolicy
+     */
+    public void setBulkheadRejectPolicy(OpaBulkheadRejectPolicy bulkheadRejectPolicy) {
+        this.bulkheadRejectPolicy = bulkheadRejectPolicy;
+    }
+
+    public boolean getBulkheadExecutor() {
+        return bulkheadExecutor;
+    }
+
+    /**
+     * Whether the OPA calls of the bulkhead run on a dedicated executor instead of the thread of the route, using
+     * virtual threads on Java 21 or later, so that blocking calls cannot starve the other routes
+     * @param bulkheadExecutor
+     */
+    public void setBulkheadExecutor(boolean bulkheadExecutor) {
+        this.bulkheadExecutor = bulkheadExecutor;
+    }
+
+    public String getPolicies() {
+        return policies;
+    }
+
+    /**
+     * Comma separated paths of policies evaluated along with the policy of the endpoint, such as
+     * /v1/data/rbac/allow,/v1/data/residency/allow. The policies are evaluated at once and their decisions combined
+     * with the policy combination
+     * @param policies
+     */
+    public void setPolicies(String policies) {
+        this.policies = policies;
+    }
+
+    public OpaPolicyCombination getPolicyCombination() {
+        return policyCombination;
+    }
+
+    /**
+     * How the decisions of several policies are combined: ALL_ALLOW allows when every policy allows, ANY_ALLOW
+     * when one of them allows, FIRST_DENY gives the decision of the first policy in the list that does not allow
+     * @param policyCombination
+     */
+    public void setPolicyCombination(OpaPolicyCombination policyCombination) {
+        this.policyCombination = policyCombination;
+    }
+
+    public String getFilterInputField() {
+        return filterInputField;
+    }
+
+    /**
+     * Field of the input set to each element of the body by the FILTER operation, the rest of the input coming from
+     * the input template
+     * @param filterInputField
+     */
+    public void setFilterInputField(String filterInputField) {
+        this.filterInputField = filterInputField;
+    }
+
+    public int getFilterConcurrency() {
+        return filterConcurrency;
+    }
+
+    /**
+     * Maximum number of elements the FILTER operation evaluates at once
+     * @param filterConcurrency
+     */
+    public void setFilterConcurrency(int filterConcurrency) {
+        this.filterConcurrency = filterConcurrency;
     }
 }
@@ -0,0 +1,5 @@
+package org.apache.camel.component.opa;
+
+public enum OpaFallbackDecision {
+    DENY, ALLOW, LAST_CACHED
+}
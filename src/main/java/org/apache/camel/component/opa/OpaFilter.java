@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.camel.Exchange;
+import org.apache.camel.converter.stream.CachedOutputStream;
+
+/**
+ * Filters the elements of a body down to the ones OPA allows, keeping their order. Each element is evaluated on
+ * its own, set as a field of the input built from the input template, with at most filterConcurrency evaluations
+ * in flight.
+ *
+ * A collection, an array or an iterator body is replaced by the list of its allowed elements. Any other body is
+ * read as a JSON array, one element at a time, and replaced by the JSON array of its allowed elements, written to a
+ * stream cache as soon as their decisions are known in order. Only the elements in flight are held in memory.
+ */
+@Slf4j
+public class OpaFilter {
+
+    private static final Gson GSON = new Gson();
+    // the allowed elements are written back as they were read
+    private static final Gson WRITER = new GsonBuilder().serializeNulls().disableHtmlEscaping().create();
+
+    private final Exchange exchange;
+    private final Function<OpaInput, CompletableFuture<OpaDecision>> evaluator;
+    private final String inputField;
+    private final int concurrency;
+    private final byte[] template;
+    private int allowed;
+    private int denied;
+
+    public OpaFilter(OpaEndpoint opaEndpoint, Exchange exchange, Function<OpaInput, CompletableFuture<OpaDecision>> evaluator) {
+        this.exchange = exchange;
+        this.evaluator = evaluator;
+        this.inputField = opaEndpoint.getFilterInputField();
+        this.concurrency = Math.max(1, opaEndpoint.getFilterConcurrency());
+        OpaInputTemplate inputTemplate = opaEndpoint.getCompiledInputTemplate();
+        this.template = inputTemplate != null ? inputTemplate.render(exchange) : null;
+    }
+
+    /**
+     * Filters the body, returning the allowed decision once the body holds the allowed elements, or the first
+     * error met, the body being left as it is
+     */
+    public OpaDecision filter() throws Exception {
+        Object body = exchange.getIn().getBody();
+        if(body instanceof Iterable || body instanceof Iterator || body instanceof Object[]) {
+            Iterator<?> elements = body instanceof Iterable ? ((Iterable<?>) body).iterator()
+                    : body instanceof Iterator ? (Iterator<?>) body : Arrays.asList((Object[]) body).iterator();
+            List<Object> allowedElements = new ArrayList<>();
+            OpaDecision decision = filter(elements, OpaFilter::toJson, allowedElements::add);
+            if(decision.isAllowed()) {
+                exchange.getIn().setBody(allowedElements);
+            }
+            return decision;
+        }
+
+        Reader reader = body instanceof Reader ? (Reader) body
+                : new InputStreamReader(exchange.getIn().getMandatoryBody(InputStream.class), StandardCharsets.UTF_8);
+        try (JsonReader jsonReader = new JsonReader(reader)) {
+            CachedOutputStream output = new CachedOutputStream(exchange);
+            JsonWriter jsonWriter = new JsonWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            jsonReader.beginArray();
+            jsonWriter.beginArray();
+            OpaDecision decision = filter(elements(jsonReader), Function.identity(), element -> WRITER.toJson(element, jsonWriter));
+            if(!decision.isAllowed()) {
+                jsonWriter.close();
+                return decision;
+            }
+            jsonReader.endArray();
+            jsonWriter.endArray();
+            jsonWriter.flush();
+            exchange.getIn().setBody(output.newStreamCache());
+            return decision;
+        } catch(UncheckedIOException e) {
+            throw e.getCause();
+        } catch(JsonParseException | IllegalStateException e) {
+            throw new IOException("The body is neither a collection nor a JSON array: " + e.getMessage(), e);
+        }
+    }
+
+    private interface Sink<T> {
+        void accept(T element) throws IOException;
+    }
+
+    private <T> OpaDecision filter(Iterator<T> elements, Function<T, JsonElement> toJson, Sink<T> sink) throws IOException {
+        JsonObject document = template != null
+                ? JsonParser.parseString(new String(template, StandardCharsets.UTF_8)).getAsJsonObject()
+                : new JsonObject();
+        JsonElement input = document.get("input");
+        if(input == null || !input.isJsonObject()) {
+            input = new JsonObject();
+            document.add("input", input);
+        }
+
+        Deque<Pending<T>> window = new ArrayDeque<>(concurrency);
+        int index = 0;
+        try {
+            while(elements.hasNext()) {
+                T element = elements.next();
+                if(window.size() >= concurrency) {
+                    OpaDecision error = accept(window.poll(), sink);
+                    if(error != null) {
+                        return error;
+                    }
+                }
+                // the document is only read while the input is built, it is reused for the next element
+                input.getAsJsonObject().add(inputField, toJson.apply(element));
+                OpaInput elementInput = OpaInput.of(document.toString().getBytes(StandardCharsets.UTF_8));
+                window.add(new Pending<>(index++, element, evaluator.apply(elementInput)));
+
+                while(!window.isEmpty() && window.peek().decision.isDone()) {
+                    OpaDecision error = accept(window.poll(), sink);
+                    if(error != null) {
+                        return error;
+                    }
+                }
+            }
+            while(!window.isEmpty()) {
+                OpaDecision error = accept(window.poll(), sink);
+                if(error != null) {
+                    return error;
+                }
+            }
+        } finally {
+            window.forEach(pending -> pending.decision.cancel(false));
+        }
+        exchange.getIn().setHeader("OPA-FilterAllowed", allowed);
+        exchange.getIn().setHeader("OPA-FilterDenied", denied);
+        log.debug("OPA filter allowed {} and denied {} elements", allowed, denied);
+        return OpaDecision.allow();
+    }
+
+    /**
+     * Hands the element to the sink when allowed, returning the decision when it is an error
+     */
+    private <T> OpaDecision accept(Pending<T> pending, Sink<T> sink) throws IOException {
+        OpaDecision decision = pending.decision.join();
+        if(decision.isAllowed()) {
+            allowed++;
+            sink.accept(pending.element);
+            return null;
+        }
+        if(decision.isDenied()) {
+            denied++;
+            return null;
+        }
+        return decision.from("OPA filter element " + pending.index);
+    }
+
+    private static Iterator<JsonElement> elements(JsonReader jsonReader) {
+        return new Iterator<JsonElement>() {
+            @Override
+            public boolean hasNext() {
+                try {
+                    return jsonReader.hasNext();
+                } catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public JsonElement next() {
+                return JsonParser.parseReader(jsonReader);
+            }
+        };
+    }
+
+    static JsonElement toJson(Object element) {
+        if(element instanceof JsonElement) {
+            return (JsonElement) element;
+        }
+        return element != null ? GSON.toJsonTree(element) : JsonNull.INSTANCE;
+    }
+
+    private static final class Pending<T> {
+        private final int index;
+        private final T element;
+        private final CompletableFuture<OpaDecision> decision;
+
+        private Pending(int index, T element, CompletableFuture<OpaDecision> decision) {
+            this.index = index;
+            this.element = element;
+            this.decision = decision;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Sends a second, hedged request when OPA has not answered the first one after a delay, keeping whichever
+ * answer comes first and cancelling the other request. The delay is either fixed or the 95th percentile of the
+ * OPA response times observed so far, recorded by the hedger itself so that resetting the endpoint statistics
+ * does not bring the delay back to its warm-up. Hedges are rationed so that they stay under hedgeRatio percent of the
+ * requests.
+ */
+@Slf4j
+public class OpaHedger {
+
+    // observed responses needed before the 95th percentile is trusted as a delay
+    private static final long MINIMUM_SAMPLES = 100;
+    private static final long DELAY_REFRESH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+    // a hedge costs 100 credits, each request earns hedgeRatio of them
+    private static final long HEDGE_COST = 100;
+    private static final long MAXIMUM_CREDITS = 10 * HEDGE_COST;
+
+    private final OpaEndpoint opaEndpoint;
+    private final long fixedDelay;
+    private final int hedgeRatio;
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder won = new LongAdder();
+    private final OpaLatencyHistogram responseTimes = new OpaLatencyHistogram();
+    private ScheduledExecutorService scheduler;
+    private long credits;
+    private volatile long adaptiveDelay = -1;
+    private volatile long adaptiveDelayComputedAt;
+
+    public OpaHedger(OpaEndpoint opaEndpoint) {
+        this.opaEndpoint = opaEndpoint;
+        this.fixedDelay = TimeUnit.MILLISECONDS.toNanos(opaEndpoint.getHedgeDelay());
+        this.hedgeRatio = opaEndpoint.getHedgeRatio();
+    }
+
+    public void start() {
+        scheduler = opaEndpoint.getCamelContext().getExecutorServiceManager().newSingleThreadScheduledExecutor(this, "OpaHedger");
+    }
+
+    public void stop() {
+        if(scheduler != null) {
+            opaEndpoint.getCamelContext().getExecutorServiceManager().shutdownNow(scheduler);
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Runs the primary request, and the backup one if the primary has not answered after the hedge delay. A
+     * failed request only wins when the other one failed too or was never sent.
+     */
+    public CompletableFuture<OpaDecision> execute(CompletableFuture<OpaDecision> primary, Supplier<CompletableFuture<OpaDecision>> backup) {
+        boolean hedgeable = earnCredits();
+        long delay = fixedDelay > 0 ? fixedDelay : adaptiveDelay();
+        if(!hedgeable || delay < 0 || primary.isDone()) {
+            return primary;
+        }
+
+        Hedge hedge = new Hedge(primary);
+        hedge.timer = scheduler.schedule(() -> hedge.sendBackup(backup), delay, TimeUnit.NANOSECONDS);
+        primary.whenComplete((decision, throwable) -> hedge.primaryCompleted(decision, throwable));
+        hedge.result.whenComplete((decision, throwable) -> {
+            if(hedge.result.isCancelled()) {
+                hedge.cancelled();
+            }
+        });
+        return hedge.result;
+    }
+
+    private synchronized boolean earnCredits() {
+        credits = Math.min(MAXIMUM_CREDITS, credits + hedgeRatio);
+        return credits >= HEDGE_COST;
+    }
+
+    private synchronized boolean spendCredits() {
+        if(credits < HEDGE_COST) {
+            return false;
+        }
+        credits -= HEDGE_COST;
+        return true;
+    }
+
+    private long adaptiveDelay() {
+        long now = System.nanoTime();
+        if(now - adaptiveDelayComputedAt > DELAY_REFRESH_INTERVAL) {
+            adaptiveDelay = responseTimes.getCount() < MINIMUM_SAMPLES
+                    ? -1 : (long) (responseTimes.getPercentile(95) * TimeUnit.MILLISECONDS.toNanos(1));
+            adaptiveDelayComputedAt = now;
+        }
+        return adaptiveDelay;
+    }
+
+    /**
+     * Records the time OPA took to answer a request, as captured in the context by the interceptors of the client
+     */
+    public void recordResponse(HttpContext context) {
+        Long sent = (Long) context.getAttribute(OpaMetrics.SENT_TIME);
+        Long received = (Long) context.getAttribute(OpaMetrics.RECEIVED_TIME);
+        if(sent != null && received != null) {
+            responseTimes.record(received - sent);
+        }
+    }
+
+    /**
+     * Hedged requests sent
+     */
+    public long getIssued() {
+        return issued.sum();
+    }
+
+    /**
+     * Hedged requests that answered before the primary one
+     */
+    public long getWon() {
+        return won.sum();
+    }
+
+    public void reset() {
+        issued.reset();
+        won.reset();
+    }
+
+    private final class Hedge {
+        private final CompletableFuture<OpaDecision> result = new CompletableFuture<>();
+        private final CompletableFuture<OpaDecision> primary;
+        private CompletableFuture<OpaDecision> backup;
+        private ScheduledFuture<?> timer;
+        private boolean primaryDone;
+        private boolean backupDone;
+
+        private Hedge(CompletableFuture<OpaDecision> primary) {
+            this.primary = primary;
+        }
+
+        private synchronized void sendBackup(Supplier<CompletableFuture<OpaDecision>> supplier) {
+            if(primaryDone || result.isDone() || !spendCredits()) {
+                return;
+            }
+            log.trace("No answer from OPA after the hedge delay, sending a hedged request");
+            issued.increment();
+            backup = supplier.get();
+            backup.whenComplete((decision, throwable) -> backupCompleted(decision, throwable));
+        }
+
+        private synchronized void primaryCompleted(OpaDecision decision, Throwable throwable) {
+            primaryDone = true;
+            timer.cancel(false);
+            if(throwable != null) {
+                if(backup == null || backupDone) {
+                    result.completeExceptionally(throwable);
+                }
+                return;
+            }
+            if(!decision.isRetryable() || backup == null || backupDone) {
+                complete(decision, backup);
+            }
+        }
+
+        private synchronized void backupCompleted(OpaDecision decision, Throwable throwable) {
+            backupDone = true;
+            if(throwable != null) {
+                if(primaryDone) {
+                    result.completeExceptionally(throwable);
+                }
+                return;
+            }
+            if(!decision.isRetryable() || primaryDone) {
+                if(complete(decision, primary) && !decision.isRetryable()) {
+                    won.increment();
+                }
+            }
+        }
+
+        /**
+         * The caller gave up on the decision, neither request nor the pending backup are needed anymore
+         */
+        private synchronized void cancelled() {
+            timer.cancel(false);
+            primary.cancel(false);
+            if(backup != null) {
+                backup.cancel(false);
+            }
+        }
+
+        private boolean complete(OpaDecision decision, CompletableFuture<OpaDecision> other) {
+            if(!result.complete(decision)) {
+                return false;
+            }
+            if(other != null) {
+                other.cancel(false);
+            }
+            return true;
+        }
+    }
+}
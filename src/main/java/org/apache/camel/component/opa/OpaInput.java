@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.camel.Message;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+
+/**
+ * The OPA input document of an exchange. Bodies that are already binary are streamed into the HTTP request
+ * as they are; the content is only copied into a byte array when a feature needs to look at it, such as the
+ * decision cache or batching. Text is always encoded as UTF-8.
+ */
+public final class OpaInput {
+
+    private final Object body;
+    private byte[] bytes;
+
+    private OpaInput(Object body) {
+        this.body = body;
+    }
+
+    public static OpaInput of(Message message) {
+        Object body = message.getBody();
+        if(body instanceof byte[] || body instanceof ByteBuffer || body instanceof InputStream) {
+            return new OpaInput(body);
+        }
+        String text = message.getBody(String.class);
+        return new OpaInput(text != null ? text.getBytes(StandardCharsets.UTF_8) : new byte[0]);
+    }
+
+    public static OpaInput of(byte[] bytes) {
+        return new OpaInput(bytes);
+    }
+
+    /**
+     * The content of the input, read once and kept
+     */
+    public byte[] bytes() throws IOException {
+        if(bytes == null) {
+            if(body instanceof byte[]) {
+                bytes = (byte[]) body;
+            } else if(body instanceof ByteBuffer) {
+                ByteBuffer byteBuffer = ((ByteBuffer) body).duplicate();
+                bytes = new byte[byteBuffer.remaining()];
+                byteBuffer.get(bytes);
+            } else {
+                bytes = OpaIOHelper.readFully((InputStream) body);
+            }
+        }
+        return bytes;
+    }
+
+    public HttpEntity toEntity() {
+        if(bytes != null) {
+            return new ByteArrayEntity(bytes, ContentType.APPLICATION_JSON);
+        }
+        if(body instanceof byte[]) {
+            return new ByteArrayEntity((byte[]) body, ContentType.APPLICATION_JSON);
+        }
+        if(body instanceof ByteBuffer) {
+            ByteBuffer byteBuffer = (ByteBuffer) body;
+            if(byteBuffer.hasArray()) {
+                return new ByteArrayEntity(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(),
+                        byteBuffer.remaining(), ContentType.APPLICATION_JSON);
+            }
+            try {
+                return new ByteArrayEntity(bytes(), ContentType.APPLICATION_JSON);
+            } catch(IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return new InputStreamEntity((InputStream) body, -1, ContentType.APPLICATION_JSON);
+    }
+
+    /**
+     * True when the entity can be sent more than once, which is not the case of a body streamed from an
+     * InputStream that has not been read into memory
+     */
+    public boolean isRepeatable() {
+        return bytes != null || !(body instanceof InputStream);
+    }
+
+    @Override
+    public String toString() {
+        if(bytes != null || body instanceof byte[]) {
+            byte[] content = bytes != null ? bytes : (byte[]) body;
+            return new String(content, StandardCharsets.UTF_8);
+        }
+        return body.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Digest of the canonical form of an OPA input document: object keys sorted and insignificant whitespace
+ * removed, so that equivalent inputs map to the same key.
+ */
+public final class OpaInputKey {
+
+    private final byte[] digest;
+    private final int hashCode;
+
+    private OpaInputKey(byte[] digest) {
+        this.digest = digest;
+        this.hashCode = Arrays.hashCode(digest);
+    }
+
+    public static OpaInputKey of(byte[] input) {
+        byte[] canonical;
+        try {
+            canonical = canonicalize(JsonParser.parseString(new String(input, StandardCharsets.UTF_8)))
+                    .getBytes(StandardCharsets.UTF_8);
+        } catch(JsonParseException | IOException e) {
+            // not a JSON document, OPA will reject it anyway so the raw bytes are good enough
+            canonical = input;
+        }
+        return new OpaInputKey(sha256(canonical));
+    }
+
+    /**
+     * Key of an input document already parsed
+     */
+    static OpaInputKey of(JsonElement element) throws IOException {
+        return new OpaInputKey(sha256(canonicalize(element).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static String canonicalize(JsonElement element) throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        JsonWriter jsonWriter = new JsonWriter(stringWriter);
+        write(element, jsonWriter);
+        jsonWriter.flush();
+        return stringWriter.toString();
+    }
+
+    private static void write(JsonElement element, JsonWriter jsonWriter) throws IOException {
+        if(element.isJsonObject()) {
+            JsonObject jsonObject = element.getAsJsonObject();
+            Map<String, JsonElement> sorted = new TreeMap<>();
+            for(Map.Entry<String, JsonElement> entry : jsonObject.entrySet()) {
+                sorted.put(entry.getKey(), entry.getValue());
+            }
+            jsonWriter.beginObject();
+            for(Map.Entry<String, JsonElement> entry : sorted.entrySet()) {
+                jsonWriter.name(entry.getKey());
+                write(entry.getValue(), jsonWriter);
+            }
+            jsonWriter.endObject();
+        } else if(element.isJsonArray()) {
+            JsonArray jsonArray = element.getAsJsonArray();
+            jsonWriter.beginArray();
+            for(JsonElement item : jsonArray) {
+                write(item, jsonWriter);
+            }
+            jsonWriter.endArray();
+        } else if(element.isJsonNull()) {
+            jsonWriter.nullValue();
+        } else if(element.getAsJsonPrimitive().isNumber()) {
+            jsonWriter.value(element.getAsNumber());
+        } else if(element.getAsJsonPrimitive().isBoolean()) {
+            jsonWriter.value(element.getAsBoolean());
+        } else {
+            jsonWriter.value(element.getAsString());
+        }
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) {
+            return true;
+        }
+        return o instanceof OpaInputKey && Arrays.equals(digest, ((OpaInputKey) o).digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
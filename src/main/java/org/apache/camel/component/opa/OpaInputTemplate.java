@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Expression;
+import org.apache.camel.spi.Language;
+
+/**
+ * Builds the OPA input document from the exchange. The template is a comma separated list of
+ * <code>field=expression</code> pairs, where the expression uses the simple language, for example
+ * <code>user=${header.user},resource.id=${exchangeProperty.resourceId}</code>. Dotted field names create
+ * nested objects.
+ *
+ * The template is compiled once into the constant JSON fragments around each field, so rendering an exchange
+ * only evaluates the expressions and writes their values between the fragments.
+ */
+public final class OpaInputTemplate {
+
+    private static final Gson gson = new Gson();
+
+    private final Object[] segments;
+    private final int constantLength;
+
+    private OpaInputTemplate(Object[] segments, int constantLength) {
+        this.segments = segments;
+        this.constantLength = constantLength;
+    }
+
+    public static OpaInputTemplate compile(CamelContext camelContext, String template) {
+        Language simple = camelContext.resolveLanguage("simple");
+
+        Map<String, Object> fields = new LinkedHashMap<>();
+        for(String pair : split(template)) {
+            int separator = pair.indexOf('=');
+            if(separator <= 0) {
+                throw new IllegalArgumentException("Invalid OPA input template entry: " + pair);
+            }
+            String[] path = pair.substring(0, separator).trim().split("\\.");
+            Expression expression = simple.createExpression(pair.substring(separator + 1).trim());
+            put(fields, path, expression, template);
+        }
+
+        List<Object> segments = new ArrayList<>();
+        StringBuilder constant = new StringBuilder("{\"input\":");
+        compileObject(fields, constant, segments);
+        constant.append('}');
+        segments.add(constant.toString().getBytes(StandardCharsets.UTF_8));
+
+        int constantLength = 0;
+        for(Object segment : segments) {
+            if(segment instanceof byte[]) {
+                constantLength += ((byte[]) segment).length;
+            }
+        }
+        return new OpaInputTemplate(segments.toArray(), constantLength);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void put(Map<String, Object> fields, String[] path, Expression expression, String template) {
+        Map<String, Object> current = fields;
+        for(int i = 0; i < path.length - 1; i++) {
+            Object child = current.computeIfAbsent(path[i], k -> new LinkedHashMap<String, Object>());
+            if(!(child instanceof Map)) {
+                throw new IllegalArgumentException("Field " + path[i] + " is both a value and an object in OPA input template: " + template);
+            }
+            current = (Map<String, Object>) child;
+        }
+        if(current.put(path[path.length - 1], expression) != null) {
+            throw new IllegalArgumentException("Duplicate field " + path[path.length - 1] + " in OPA input template: " + template);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void compileObject(Map<String, Object> fields, StringBuilder constant, List<Object> segments) {
+        constant.append('{');
+        boolean first = true;
+        for(Map.Entry<String, Object> field : fields.entrySet()) {
+            if(!first) {
+                constant.append(',');
+            }
+            first = false;
+            constant.append(gson.toJson(field.getKey())).append(':');
+            if(field.getValue() instanceof Map) {
+                compileObject((Map<String, Object>) field.getValue(), constant, segments);
+            } else {
+                segments.add(constant.toString().getBytes(StandardCharsets.UTF_8));
+                segments.add(field.getValue());
+                constant.setLength(0);
+            }
+        }
+        constant.append('}');
+    }
+
+    /**
+     * Splits on the commas that are not inside a ${...} expression
+     */
+    private static List<String> split(String template) {
+        List<String> pairs = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for(int i = 0; i < template.length(); i++) {
+            char c = template.charAt(i);
+            if(c == '{') {
+                depth++;
+            } else if(c == '}') {
+                depth--;
+            } else if(c == ',' && depth == 0) {
+                pairs.add(template.substring(start, i));
+                start = i + 1;
+            }
+        }
+        pairs.add(template.substring(start));
+        return pairs;
+    }
+
+    public byte[] render(Exchange exchange) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(constantLength + 16 * segments.length);
+        for(Object segment : segments) {
+            if(segment instanceof byte[]) {
+                byte[] bytes = (byte[]) segment;
+                buffer.write(bytes, 0, bytes.length);
+            } else {
+                writeValue(((Expression) segment).evaluate(exchange, Object.class), buffer);
+            }
+        }
+        return buffer.toByteArray();
+    }
+
+    private static void writeValue(Object value, ByteArrayOutputStream buffer) {
+        if(value == null) {
+            writeAscii("null", buffer);
+        } else if(value instanceof Boolean) {
+            writeAscii(value.toString(), buffer);
+        } else if(value instanceof Number && Double.isFinite(((Number) value).doubleValue())) {
+            writeAscii(value.toString(), buffer);
+        } else if(value instanceof CharSequence || value instanceof Number || value instanceof Character) {
+            writeString(value.toString(), buffer);
+        } else {
+            byte[] json = gson.toJson(value).getBytes(StandardCharsets.UTF_8);
+            buffer.write(json, 0, json.length);
+        }
+    }
+
+    private static void writeAscii(String value, ByteArrayOutputStream buffer) {
+        for(int i = 0; i < value.length(); i++) {
+            buffer.write(value.charAt(i));
+        }
+    }
+
+    /**
+     * Writes a JSON string encoded as UTF-8 without going through an intermediate String
+     */
+    private static void writeString(String value, ByteArrayOutputStream buffer) {
+        buffer.write('"');
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c == '"' || c == '\\') {
+                buffer.write('\\');
+                buffer.write(c);
+            } else if(c < 0x20) {
+                writeAscii(String.format("\\u%04x", (int) c), buffer);
+            } else if(c < 0x80) {
+                buffer.write(c);
+            } else if(c < 0x800) {
+                buffer.write(0xc0 | (c >> 6));
+                buffer.write(0x80 | (c & 0x3f));
+            } else if(Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.write(0xf0 | (codePoint >> 18));
+                buffer.write(0x80 | ((codePoint >> 12) & 0x3f));
+                buffer.write(0x80 | ((codePoint >> 6) & 0x3f));
+                buffer.write(0x80 | (codePoint & 0x3f));
+            } else if(Character.isSurrogate(c)) {
+                buffer.write('?');
+            } else {
+                buffer.write(0xe0 | (c >> 12));
+                buffer.write(0x80 | ((c >> 6) & 0x3f));
+                buffer.write(0x80 | (c & 0x3f));
+            }
+        }
+        buffer.write('"');
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One OPA server behind an endpoint, with the state used by the {@link OpaLoadBalancer} to pick it: the requests
+ * in flight, a moving average of its latency and the consecutive failures that get it ejected.
+ */
+public final class OpaInstance {
+
+    // weight of the last response in the latency average
+    private static final double EWMA_ALPHA = 0.2;
+
+    private final String baseUrl;
+    private final String url;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile double latencyAverage;
+    private volatile boolean ejected;
+    private volatile long ejectedUntil;
+
+    OpaInstance(String baseUrl, String path) {
+        this.baseUrl = baseUrl;
+        this.url = baseUrl + path;
+    }
+
+    /**
+     * The scheme and authority of the instance, such as http://opa-1:8181
+     */
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * The URL queried for the endpoint decisions
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * Moving average of the response time in nanoseconds, 0 until the instance has answered
+     */
+    public double getLatencyAverage() {
+        return latencyAverage;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    public boolean isEjected(long now) {
+        return ejected && ejectedUntil - now > 0;
+    }
+
+    void requestStarted() {
+        outstanding.incrementAndGet();
+    }
+
+    void requestSucceeded(long nanos) {
+        outstanding.decrementAndGet();
+        consecutiveFailures.set(0);
+        ejected = false;
+        double average = latencyAverage;
+        // racy read-modify-write, losing an update now and then does not matter for an average
+        latencyAverage = average == 0 ? nanos : average + EWMA_ALPHA * (nanos - average);
+    }
+
+    void requestCancelled() {
+        outstanding.decrementAndGet();
+    }
+
+    /**
+     * Records a failed call, returning true when it ejected the instance, that is only when the instance was
+     * not already ejected
+     */
+    boolean requestFailed(int ejectionThreshold, long ejectionCooldown) {
+        outstanding.decrementAndGet();
+        return failed(ejectionThreshold, ejectionCooldown);
+    }
+
+    private synchronized boolean failed(int ejectionThreshold, long ejectionCooldown) {
+        // calls still in flight when the instance was ejected fail too, they must not extend the cooldown
+        if(consecutiveFailures.incrementAndGet() < ejectionThreshold || isEjected(System.nanoTime())) {
+            return false;
+        }
+        eject(ejectionCooldown);
+        return true;
+    }
+
+    void eject(long ejectionCooldown) {
+        ejectedUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(ejectionCooldown);
+        ejected = true;
+    }
+
+    void reinstate() {
+        consecutiveFailures.set(0);
+        ejected = false;
+    }
+
+    @Override
+    public String toString() {
+        return baseUrl;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Computes the JSON Patch (RFC 6902) turning a document into another one. Objects are compared member by
+ * member and arrays index by index, trailing elements being added or removed, so the patch only holds add,
+ * remove and replace operations.
+ */
+public final class OpaJsonPatch {
+
+    private OpaJsonPatch() {
+    }
+
+    public static JsonArray diff(JsonElement source, JsonElement target) {
+        JsonArray patch = new JsonArray();
+        diff("", source, target, patch);
+        return patch;
+    }
+
+    private static void diff(String path, JsonElement source, JsonElement target, JsonArray patch) {
+        if(source.equals(target)) {
+            return;
+        }
+        if(source.isJsonObject() && target.isJsonObject()) {
+            diffObjects(path, source.getAsJsonObject(), target.getAsJsonObject(), patch);
+        } else if(source.isJsonArray() && target.isJsonArray()) {
+            diffArrays(path, source.getAsJsonArray(), target.getAsJsonArray(), patch);
+        } else {
+            patch.add(operation("replace", path, target));
+        }
+    }
+
+    private static void diffObjects(String path, JsonObject source, JsonObject target, JsonArray patch) {
+        for(Map.Entry<String, JsonElement> member : source.entrySet()) {
+            String memberPath = path + "/" + escape(member.getKey());
+            JsonElement targetValue = target.get(member.getKey());
+            if(targetValue == null) {
+                patch.add(operation("remove", memberPath, null));
+            } else {
+                diff(memberPath, member.getValue(), targetValue, patch);
+            }
+        }
+        for(Map.Entry<String, JsonElement> member : target.entrySet()) {
+            if(!source.has(member.getKey())) {
+                patch.add(operation("add", path + "/" + escape(member.getKey()), member.getValue()));
+            }
+        }
+    }
+
+    private static void diffArrays(String path, JsonArray source, JsonArray target, JsonArray patch) {
+        int common = Math.min(source.size(), target.size());
+        for(int i = 0; i < common; i++) {
+            diff(path + "/" + i, source.get(i), target.get(i), patch);
+        }
+        // remove from the end so that the indexes of the remaining elements do not move
+        for(int i = source.size() - 1; i >= common; i--) {
+            patch.add(operation("remove", path + "/" + i, null));
+        }
+        for(int i = common; i < target.size(); i++) {
+            patch.add(operation("add", path + "/-", target.get(i)));
+        }
+    }
+
+    private static JsonObject operation(String op, String path, JsonElement value) {
+        JsonObject operation = new JsonObject();
+        operation.addProperty("op", op);
+        operation.addProperty("path", path);
+        if(value != null) {
+            operation.add("value", value);
+        }
+        return operation;
+    }
+
+    private static String escape(String key) {
+        return key.replace("~", "~0").replace("/", "~1");
+    }
+}
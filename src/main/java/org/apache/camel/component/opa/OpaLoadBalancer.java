@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.client.methods.HttpGet;
+
+/**
+ * Spreads the requests of an endpoint over several OPA instances serving the same policies. Instances failing
+ * ejectionThreshold times in a row are left out for ejectionCooldown seconds, and optionally probed on their
+ * /health resource every healthCheckInterval seconds.
+ */
+@Slf4j
+public class OpaLoadBalancer {
+
+    private final OpaEndpoint opaEndpoint;
+    private final List<OpaInstance> instances;
+    private final OpaLoadBalancerType type;
+    private final int ejectionThreshold;
+    private final int ejectionCooldown;
+    private final AtomicInteger next = new AtomicInteger();
+    private ScheduledExecutorService healthChecker;
+
+    public OpaLoadBalancer(OpaEndpoint opaEndpoint) {
+        this.opaEndpoint = opaEndpoint;
+        this.type = opaEndpoint.getLoadBalancer();
+        this.ejectionThreshold = Math.max(1, opaEndpoint.getEjectionThreshold());
+        this.ejectionCooldown = opaEndpoint.getEjectionCooldown();
+
+        URI uri = URI.create(opaEndpoint.getOpaUrl());
+        String path = opaEndpoint.getOpaUrl().substring((uri.getScheme() + "://" + uri.getAuthority()).length());
+        List<OpaInstance> instances = new ArrayList<>();
+        instances.add(new OpaInstance(uri.getScheme() + "://" + uri.getAuthority(), path));
+        for(String instance : opaEndpoint.getInstances().split(",")) {
+            if(!instance.trim().isEmpty()) {
+                instances.add(new OpaInstance(uri.getScheme() + "://" + instance.trim(), path));
+            }
+        }
+        this.instances = Collections.unmodifiableList(instances);
+    }
+
+    public void start() {
+        if(opaEndpoint.getHealthCheckInterval() > 0) {
+            healthChecker = opaEndpoint.getCamelContext().getExecutorServiceManager()
+                    .newSingleThreadScheduledExecutor(this, "OpaHealthCheck");
+            healthChecker.scheduleWithFixedDelay(this::checkHealth, 0, opaEndpoint.getHealthCheckInterval(), TimeUnit.SECONDS);
+        }
+    }
+
+    public void stop() {
+        if(healthChecker != null) {
+            opaEndpoint.getCamelContext().getExecutorServiceManager().shutdownNow(healthChecker);
+            healthChecker = null;
+        }
+    }
+
+    public List<OpaInstance> getInstances() {
+        return instances;
+    }
+
+    /**
+     * Picks the instance for the next attempt among the ones not tried yet, preferring instances that are not
+     * ejected. Returns null once every instance was tried.
+     */
+    public OpaInstance choose(Set<OpaInstance> tried) {
+        long now = System.nanoTime();
+        int size = instances.size();
+        // rotate the starting point so that ties do not always go to the first instance
+        int start = Math.floorMod(next.getAndIncrement(), size);
+
+        OpaInstance chosen = null;
+        OpaInstance fallback = null;
+        for(int i = 0; i < size; i++) {
+            OpaInstance instance = instances.get((start + i) % size);
+            if(tried.contains(instance)) {
+                continue;
+            }
+            if(instance.isEjected(now)) {
+                if(fallback == null) {
+                    fallback = instance;
+                }
+                continue;
+            }
+            if(type == OpaLoadBalancerType.ROUND_ROBIN) {
+                return instance;
+            }
+            if(chosen == null || score(instance) < score(chosen)) {
+                chosen = instance;
+            }
+        }
+        return chosen != null ? chosen : fallback;
+    }
+
+    private double score(OpaInstance instance) {
+        if(type == OpaLoadBalancerType.LEAST_OUTSTANDING) {
+            return instance.getOutstanding();
+        }
+        // expected wait for a new request: the average latency for each request in the queue and the new one
+        return instance.getLatencyAverage() * (instance.getOutstanding() + 1);
+    }
+
+    void requestSucceeded(OpaInstance instance, long nanos) {
+        instance.requestSucceeded(nanos);
+    }
+
+    void requestFailed(OpaInstance instance, OpaDecision decision) {
+        if(instance.requestFailed(ejectionThreshold, ejectionCooldown)) {
+            log.warn("Ejecting OPA instance {} for {} seconds after {} consecutive failures, last one: {}",
+                    instance, ejectionCooldown, instance.getConsecutiveFailures(), decision.getMessage());
+        }
+    }
+
+    private void checkHealth() {
+        for(OpaInstance instance : instances) {
+            HttpGet httpGet = new HttpGet(instance.getBaseUrl() + "/health");
+            httpGet.setConfig(opaEndpoint.getRequestConfig());
+            try {
+                int statusCode = opaEndpoint.getConnectionPool()
+                        .execute(httpGet, httpResponse -> httpResponse.getStatusLine().getStatusCode(), true)
+                        .join();
+                if(statusCode == 200) {
+                    if(instance.isEjected(System.nanoTime())) {
+                        log.info("Reinstating OPA instance {}, its health check succeeded", instance);
+                    }
+                    instance.reinstate();
+                    continue;
+                }
+                healthCheckFailed(instance, "status " + statusCode);
+            } catch(Exception e) {
+                healthCheckFailed(instance, e.getMessage());
+            }
+        }
+    }
+
+    private void healthCheckFailed(OpaInstance instance, String reason) {
+        boolean wasEjected = instance.isEjected(System.nanoTime());
+        // a failed probe ejects the instance at once, and again at each probe until it recovers
+        instance.eject(ejectionCooldown);
+        if(!wasEjected) {
+            log.warn("Ejecting OPA instance {} for {} seconds, its health check failed: {}", instance, ejectionCooldown, reason);
+        }
+    }
+}
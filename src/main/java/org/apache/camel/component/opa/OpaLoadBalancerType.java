@@ -0,0 +1,5 @@
+package org.apache.camel.component.opa;
+
+public enum OpaLoadBalancerType {
+    ROUND_ROBIN, LEAST_OUTSTANDING, LATENCY
+}
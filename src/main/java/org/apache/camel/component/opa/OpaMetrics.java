@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Decision counters and latency statistics of an {@link OpaEndpoint}.
+ *
+ * The lease wait covers the time spent getting a pooled connection, connecting included, until the request is
+ * written. The server response is the time from then until the response head is received. Both are measured by
+ * interceptors registered on the HTTP clients, see {@link #REQUEST_INTERCEPTOR} and
+ * {@link #RESPONSE_INTERCEPTOR}.
+ *
+ * The counters are reset for JMX, the totals are not: monitoring systems such as Micrometer expect counters that
+ * only ever grow.
+ */
+public class OpaMetrics {
+
+    static final String START_TIME = "opa.start";
+    static final String SENT_TIME = "opa.sent";
+    static final String RECEIVED_TIME = "opa.received";
+
+    static final HttpRequestInterceptor REQUEST_INTERCEPTOR = (request, context) -> context.setAttribute(SENT_TIME, System.nanoTime());
+    static final HttpResponseInterceptor RESPONSE_INTERCEPTOR = (response, context) -> context.setAttribute(RECEIVED_TIME, System.nanoTime());
+
+    private final Counter allowed = new Counter();
+    private final Counter denied = new Counter();
+    private final Counter errors = new Counter();
+    private final Counter timeouts = new Counter();
+    private final Counter bytesSent = new Counter();
+    private final Counter bytesReceived = new Counter();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final OpaLatencyHistogram totalTime = new OpaLatencyHistogram();
+    private final OpaLatencyHistogram leaseWait = new OpaLatencyHistogram();
+    private final OpaLatencyHistogram serverResponse = new OpaLatencyHistogram();
+
+    /**
+     * Records the outcome of an exchange and the time it took from the producer's point of view
+     */
+    public void recordDecision(OpaDecision decision, long startNanos) {
+        totalTime.record(System.nanoTime() - startNanos);
+        if(decision.isAllowed()) {
+            allowed.increment();
+        } else if(decision.isDenied()) {
+            denied.increment();
+        } else if(isTimeout(decision.getException())) {
+            timeouts.increment();
+        } else {
+            errors.increment();
+        }
+    }
+
+    private static boolean isTimeout(Exception exception) {
+        // connect, socket and connection pool timeouts all extend InterruptedIOException
+        return exception instanceof InterruptedIOException || exception instanceof TimeoutException;
+    }
+
+    /**
+     * Records the timings captured by the interceptors of one HTTP exchange with OPA
+     */
+    public void recordHttpExchange(HttpContext context, HttpEntity requestEntity, HttpEntity responseEntity) {
+        Long start = (Long) context.getAttribute(START_TIME);
+        Long sent = (Long) context.getAttribute(SENT_TIME);
+        Long received = (Long) context.getAttribute(RECEIVED_TIME);
+        if(start != null && sent != null) {
+            leaseWait.record(sent - start);
+            if(received != null) {
+                serverResponse.record(received - sent);
+            }
+        }
+        if(requestEntity != null && requestEntity.getContentLength() > 0) {
+            bytesSent.add(requestEntity.getContentLength());
+        }
+        if(responseEntity != null && responseEntity.getContentLength() > 0) {
+            bytesReceived.add(responseEntity.getContentLength());
+        }
+    }
+
+    public void requestStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    public void requestCompleted() {
+        inFlight.decrementAndGet();
+    }
+
+    public long getAllowed() {
+        return allowed.sinceReset();
+    }
+
+    public long getAllowedTotal() {
+        return allowed.total();
+    }
+
+    public long getDenied() {
+        return denied.sinceReset();
+    }
+
+    public long getDeniedTotal() {
+        return denied.total();
+    }
+
+    public long getErrors() {
+        return errors.sinceReset();
+    }
+
+    public long getErrorsTotal() {
+        return errors.total();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sinceReset();
+    }
+
+    public long getTimeoutsTotal() {
+        return timeouts.total();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sinceReset();
+    }
+
+    public long getBytesSentTotal() {
+        return bytesSent.total();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sinceReset();
+    }
+
+    public long getBytesReceivedTotal() {
+        return bytesReceived.total();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public OpaLatencyHistogram getTotalTime() {
+        return totalTime;
+    }
+
+    public OpaLatencyHistogram getLeaseWait() {
+        return leaseWait;
+    }
+
+    public OpaLatencyHistogram getServerResponse() {
+        return serverResponse;
+    }
+
+    public void reset() {
+        allowed.reset();
+        denied.reset();
+        errors.reset();
+        timeouts.reset();
+        bytesSent.reset();
+        bytesReceived.reset();
+        totalTime.reset();
+        leaseWait.reset();
+        serverResponse.reset();
+    }
+
+    /**
+     * A monotonic total, and the part of it counted since the last reset
+     */
+    private static final class Counter {
+        private final LongAdder total = new LongAdder();
+        private volatile long resetAt;
+
+        void increment() {
+            total.increment();
+        }
+
+        void add(long count) {
+            total.add(count);
+        }
+
+        long total() {
+            return total.sum();
+        }
+
+        long sinceReset() {
+            return total.sum() - resetAt;
+        }
+
+        void reset() {
+            resetAt = total.sum();
+        }
+    }
+}
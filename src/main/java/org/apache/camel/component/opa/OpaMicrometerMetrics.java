@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ToDoubleFunction;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Publishes the {@link OpaMetrics} of an endpoint to the Micrometer registry found in the Camel registry. Only
+ * loaded when Micrometer is on the classpath. Counters are bound to the totals, which resetting the JMX
+ * statistics leaves alone.
+ */
+@Slf4j
+public final class OpaMicrometerMetrics {
+
+    private final MeterRegistry meterRegistry;
+    private final List<Meter> meters = new ArrayList<>();
+
+    private OpaMicrometerMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Registers the meters of the endpoint, returns null when there is not exactly one MeterRegistry
+     */
+    static OpaMicrometerMetrics bind(OpaEndpoint endpoint) {
+        Set<MeterRegistry> meterRegistries = endpoint.getCamelContext().getRegistry().findByType(MeterRegistry.class);
+        if(meterRegistries.size() != 1) {
+            log.debug("Found {} Micrometer registries, OPA metrics are only exposed through JMX", meterRegistries.size());
+            return null;
+        }
+
+        OpaMicrometerMetrics micrometerMetrics = new OpaMicrometerMetrics(meterRegistries.iterator().next());
+        OpaMetrics metrics = endpoint.getMetrics();
+        Tags tags = Tags.of("endpoint", endpoint.getEndpointBaseUri());
+
+        micrometerMetrics.counter("opa.decisions", tags.and("decision", "allow"), metrics, OpaMetrics::getAllowedTotal);
+        micrometerMetrics.counter("opa.decisions", tags.and("decision", "deny"), metrics, OpaMetrics::getDeniedTotal);
+        micrometerMetrics.counter("opa.decisions", tags.and("decision", "error"), metrics, OpaMetrics::getErrorsTotal);
+        micrometerMetrics.counter("opa.decisions", tags.and("decision", "timeout"), metrics, OpaMetrics::getTimeoutsTotal);
+        micrometerMetrics.counter("opa.bytes.sent", tags, metrics, OpaMetrics::getBytesSentTotal);
+        micrometerMetrics.counter("opa.bytes.received", tags, metrics, OpaMetrics::getBytesReceivedTotal);
+        micrometerMetrics.gauge("opa.requests.inflight", tags, metrics, OpaMetrics::getInFlight);
+
+        micrometerMetrics.percentiles("opa.time.total", tags, metrics.getTotalTime());
+        micrometerMetrics.percentiles("opa.time.lease", tags, metrics.getLeaseWait());
+        micrometerMetrics.percentiles("opa.time.server", tags, metrics.getServerResponse());
+        return micrometerMetrics;
+    }
+
+    private <T> void counter(String name, Tags tags, T object, ToDoubleFunction<T> function) {
+        meters.add(FunctionCounter.builder(name, object, function).tags(tags).register(meterRegistry));
+    }
+
+    private <T> void gauge(String name, Tags tags, T object, ToDoubleFunction<T> function) {
+        meters.add(Gauge.builder(name, object, function).tags(tags).register(meterRegistry));
+    }
+
+    private void percentiles(String name, Tags tags, OpaLatencyHistogram histogram) {
+        gauge(name, tags.and("quantile", "0.5"), histogram, h -> h.getPercentile(50));
+        gauge(name, tags.and("quantile", "0.95"), histogram, h -> h.getPercentile(95));
+        gauge(name, tags.and("quantile", "0.99"), histogram, h -> h.getPercentile(99));
+    }
+
+    void unbind() {
+        for(Meter meter : meters) {
+            meterRegistry.remove(meter);
+        }
+        meters.clear();
+    }
+}
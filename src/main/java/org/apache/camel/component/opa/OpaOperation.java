@@ -1,102 +1,525 @@
 package org.apache.camel.component.opa;
 
-import com.google.gson.Gson;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.camel.AsyncCallback;
 import org.apache.camel.Exchange;
-import org.apache.http.HttpEntity;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.client.protocol.HttpClientContext;
 
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @Slf4j
 public class OpaOperation {
 
-    private final Gson gson = new Gson();
+    private final OpaEndpoint opaEndpoint;
+    private final boolean synchronous;
 
-    public void processOperation(OpaEndpoint opaEndpoint, Exchange exchange) throws Exception {
+    public OpaOperation(OpaEndpoint opaEndpoint) {
+        this(opaEndpoint, opaEndpoint.isSynchronous());
+    }
+
+    /**
+     * An operation that calls OPA synchronously or not, whatever the endpoint is configured with
+     */
+    OpaOperation(OpaEndpoint opaEndpoint, boolean synchronous) {
+        this.opaEndpoint = opaEndpoint;
+        this.synchronous = synchronous;
+    }
+
+    /**
+     * Processes the exchange, returning true when it completed synchronously. Otherwise the callback is
+     * called once OPA has answered.
+     */
+    public boolean processOperation(Exchange exchange, AsyncCallback callback) {
         switch(opaEndpoint.getOperationType()) {
             case QUERY:
-                query(opaEndpoint, exchange);
-                break;
+                return query(exchange, callback);
             case POLICY:
-                log.trace("To implement Policy");
-                break;
+                return policy(exchange, callback);
             case ACL:
-                log.trace("To implement ACL");
+                return acl(exchange, callback);
+            case DATA:
+                return data(exchange, callback);
+            case FILTER:
+                return filter(exchange, callback);
         }
+        callback.done(true);
+        return true;
     }
 
-    private void query(OpaEndpoint opaEndpoint, Exchange exchange) throws Exception {
-        RequestConfig.Builder requestConfigBuilder = RequestConfig.custom();
+    private boolean query(Exchange exchange, AsyncCallback callback) {
+        long start = System.nanoTime();
+        CompletableFuture<OpaDecision> decision;
+        try {
+            decision = evaluate(exchange);
+        } catch(Exception e) {
+            decision = CompletableFuture.completedFuture(OpaDecision.failure(e));
+        }
+        // a cancelled evaluation has no decision
+        decision = decision.exceptionally(OpaDecision::failure);
 
-        if(opaEndpoint.getConnectTimeout() > 0) {
-            requestConfigBuilder.setConnectTimeout(opaEndpoint.getConnectTimeout() * 1000);
+        // a synchronous endpoint waits for the decision even when it is batched, shared or queued in the bulkhead
+        if(decision.isDone() || synchronous) {
+            opaEndpoint.getMetrics().recordDecision(decision.join(), start);
+            complete(exchange, decision.join());
+            callback.done(true);
+            return true;
         }
 
-        if(opaEndpoint.getConnectionRequestTimeout() > 0) {
-            requestConfigBuilder.setConnectionRequestTimeout(opaEndpoint.getConnectionRequestTimeout() * 1000);
+        decision.whenComplete((opaDecision, throwable) -> {
+            try {
+                opaEndpoint.getMetrics().recordDecision(opaDecision, start);
+                complete(exchange, opaDecision);
+            } finally {
+                callback.done(false);
+            }
+        });
+        return false;
+    }
+
+    private boolean filter(Exchange exchange, AsyncCallback callback) {
+        long start = System.nanoTime();
+        OpaDecision decision;
+        try {
+            decision = new OpaFilter(opaEndpoint, exchange, input -> {
+                try {
+                    return evaluate(exchange, input);
+                } catch(Exception e) {
+                    return CompletableFuture.completedFuture(OpaDecision.failure(e));
+                }
+            }).filter();
+        } catch(Exception e) {
+            decision = OpaDecision.failure(e);
         }
+        opaEndpoint.getMetrics().recordDecision(decision, start);
+        complete(exchange, decision);
+        callback.done(true);
+        return true;
+    }
 
-        if(opaEndpoint.getSocketTimeout() > 0) {
-            requestConfigBuilder.setSocketTimeout(opaEndpoint.getSocketTimeout() * 1000);
+    private boolean acl(Exchange exchange, AsyncCallback callback) {
+        long start = System.nanoTime();
+        OpaDecision decision = opaEndpoint.getAclSnapshot().check(exchange.getIn());
+        opaEndpoint.getMetrics().recordDecision(decision, start);
+        complete(exchange, decision);
+        callback.done(true);
+        return true;
+    }
+
+    private boolean data(Exchange exchange, AsyncCallback callback) {
+        try {
+            try {
+                exchange.getIn().setHeader("OPA-DataUpdate", opaEndpoint.getDataPush().push(exchange.getIn()));
+                exchange.getIn().setHeader("OPA-RESULT", "Valid");
+            } catch(IOException e) {
+                handleException(e, exchange);
+            }
+        } catch(Exception e) {
+            exchange.setException(e);
+        }
+        callback.done(true);
+        return true;
+    }
+
+    private boolean policy(Exchange exchange, AsyncCallback callback) {
+        OpaPolicySync policySync = opaEndpoint.getPolicySync();
+        CompletableFuture<OpaPolicySync.Result> sync;
+        try {
+            sync = policySync.sync(policySync.modules(exchange));
+        } catch(Exception e) {
+            sync = new CompletableFuture<>();
+            sync.completeExceptionally(e);
         }
 
-        RequestConfig requestConfig = requestConfigBuilder.build();
-        CloseableHttpClient closeableHttpClient = HttpClientBuilder.create().setDefaultRequestConfig(requestConfig).build();
+        if(sync.isDone() || synchronous) {
+            completePolicy(exchange, sync);
+            callback.done(true);
+            return true;
+        }
 
+        CompletableFuture<OpaPolicySync.Result> pending = sync;
+        sync.whenComplete((result, throwable) -> {
+            completePolicy(exchange, pending);
+            callback.done(false);
+        });
+        return false;
+    }
+
+    private void completePolicy(Exchange exchange, CompletableFuture<OpaPolicySync.Result> sync) {
         try {
-            String input = exchange.getIn().getBody(String.class);
-            log.trace("Request received by OPA Component: {}", input);
-
-            HttpPost httpPost = new HttpPost(transformOpaEndpoint(opaEndpoint));
-            HttpEntity httpEntity = new ByteArrayEntity(input.getBytes());
-            httpPost.setEntity(httpEntity);
-
-            CloseableHttpResponse httpResponse = closeableHttpClient.execute(httpPost);
-            if (httpResponse.getStatusLine().getStatusCode() == 200) {
-                Reader reader = new InputStreamReader(httpResponse.getEntity().getContent());
-                OpaResult opaResult = gson.fromJson(reader, OpaResult.class);
-                if (!opaResult.isResult()) {
-                    handleException(opaEndpoint, "OPA returned not allowed", exchange);
-                }
-            } else {
-                handleException(opaEndpoint, "Error calling OPA endpoint: " + opaEndpoint.getEndpointUri(), exchange);
+            OpaPolicySync.Result result;
+            try {
+                result = sync.join();
+            } catch(Exception e) {
+                handleException(OpaDecision.failure(e).getException(), exchange);
+                return;
+            }
+            log.debug("Policies uploaded: {}, unchanged: {}, failed: {}", result.getUploaded(), result.getSkipped(), result.getErrors().keySet());
+            exchange.getIn().setHeader("OPA-PolicyUploaded", result.getUploaded());
+            exchange.getIn().setHeader("OPA-PolicySkipped", result.getSkipped());
+            exchange.getIn().setHeader("OPA-PolicyTimings", result.getTimings());
+            exchange.getIn().setHeader("OPA-PolicyErrors", result.getErrors());
+            if(!result.getErrors().isEmpty()) {
+                handleException("OPA rejected policies " + result.getErrors(), exchange);
+                return;
             }
             exchange.getIn().setHeader("OPA-RESULT", "Valid");
-
         } catch(Exception e) {
-            handleException(opaEndpoint, e, exchange);
-        } finally {
-            closeableHttpClient.close();
+            exchange.setException(e);
         }
     }
 
-    private String transformOpaEndpoint(OpaEndpoint endpoint) {
-        String opaEndpoint = endpoint.getEndpointBaseUri();
+    private CompletableFuture<OpaDecision> evaluate(Exchange exchange) throws Exception {
+        OpaInputTemplate inputTemplate = opaEndpoint.getCompiledInputTemplate();
+        OpaInput input = inputTemplate != null ? OpaInput.of(inputTemplate.render(exchange)) : OpaInput.of(exchange.getIn());
+        log.trace("Request received by OPA Component: {}", input);
+        return evaluate(exchange, input);
+    }
 
-        if(endpoint.getSecure()) {
-            return "https://" + opaEndpoint.substring(6);
-        } else {
-            return "http://" + opaEndpoint.substring(6);
+    private CompletableFuture<OpaDecision> evaluate(Exchange exchange, OpaInput input) throws Exception {
+        OpaPartialEvaluator partialEvaluator = opaEndpoint.getPartialEvaluator();
+        if(partialEvaluator != null) {
+            OpaDecision decision = partialEvaluator.evaluate(input.bytes());
+            if(decision != null) {
+                log.trace("Decision evaluated from the residual policy");
+                return CompletableFuture.completedFuture(decision);
+            }
+        }
+
+        OpaDecisionCache decisionCache = opaEndpoint.getDecisionCache();
+        OpaRequestCoalescer requestCoalescer = opaEndpoint.getRequestCoalescer();
+        OpaCircuitBreaker circuitBreaker = opaEndpoint.getOpaCircuitBreaker();
+        if(decisionCache == null && requestCoalescer == null && (circuitBreaker == null || !circuitBreaker.isKeyed())) {
+            return isolate(() -> circuitBreaker != null ? guard(circuitBreaker, exchange, null, input) : send(input));
+        }
+
+        OpaInputKey key = OpaInputKey.of(input.bytes());
+        if(decisionCache != null) {
+            OpaDecision cached = decisionCache.get(key);
+            if(cached != null) {
+                log.trace("Decision served from cache");
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+
+        if(circuitBreaker != null) {
+            return isolate(() -> guard(circuitBreaker, exchange, key, input));
+        }
+        return isolate(() -> share(key, input));
+    }
+
+    /**
+     * Makes the call through the bulkhead when there is one
+     */
+    private CompletableFuture<OpaDecision> isolate(Supplier<CompletableFuture<OpaDecision>> call) {
+        OpaBulkhead bulkhead = opaEndpoint.getBulkhead();
+        return bulkhead != null ? bulkhead.submit(call) : call.get();
+    }
+
+    /**
+     * Sends the input through the circuit breaker, or gives the fallback decision right away when it is open
+     */
+    private CompletableFuture<OpaDecision> guard(OpaCircuitBreaker circuitBreaker, Exchange exchange, OpaInputKey key, OpaInput input) {
+        boolean permitted = circuitBreaker.tryAcquire();
+        exchange.getIn().setHeader("OPA-CircuitBreaker", circuitBreaker.getState().name());
+        if(!permitted) {
+            log.trace("Circuit breaker open, fallback decision applied");
+            return CompletableFuture.completedFuture(circuitBreaker.fallback(key));
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<OpaDecision> decision = key != null ? share(key, input) : send(input);
+        return decision.whenComplete((opaDecision, throwable) ->
+                circuitBreaker.onResult(key, throwable != null ? OpaDecision.failure(throwable) : opaDecision, System.nanoTime() - start));
+    }
+
+    /**
+     * Sends the input, joining an identical request in flight and caching the decision when enabled
+     */
+    private CompletableFuture<OpaDecision> share(OpaInputKey key, OpaInput input) {
+        OpaDecisionCache decisionCache = opaEndpoint.getDecisionCache();
+        OpaRequestCoalescer requestCoalescer = opaEndpoint.getRequestCoalescer();
+        Supplier<CompletableFuture<OpaDecision>> call = () -> {
+            CompletableFuture<OpaDecision> decision = send(input);
+            if(decisionCache != null) {
+                decision = decision.thenApply(opaDecision -> {
+                    decisionCache.put(key, opaDecision);
+                    return opaDecision;
+                });
+            }
+            return decision;
+        };
+        return requestCoalescer != null ? requestCoalescer.execute(key, call) : call.get();
+    }
+
+    private CompletableFuture<OpaDecision> send(OpaInput input) {
+        List<String> policyPaths = opaEndpoint.getPolicyPaths();
+        if(policyPaths != null) {
+            return combine(input, policyPaths);
+        }
+
+        try {
+            if(opaEndpoint.getWasmEvaluator() != null) {
+                return CompletableFuture.completedFuture(opaEndpoint.getWasmEvaluator().evaluate(input.bytes()));
+            }
+
+            if(opaEndpoint.getBatcher() != null) {
+                return opaEndpoint.getBatcher().submit(input.bytes());
+            }
+        } catch(IOException e) {
+            return CompletableFuture.completedFuture(OpaDecision.failure(e));
+        }
+        return send(input, null);
+    }
+
+    /**
+     * Sends the input to the policy at the given path, or the policy of the endpoint when the path is null
+     */
+    private CompletableFuture<OpaDecision> send(OpaInput input, String path) {
+        return send(input, path, this::readDecision);
+    }
+
+    /**
+     * Sends the input to the policy at the given path, or the policy of the endpoint when the path is null, through
+     * the load balancer and the hedger when enabled. The reader turns the answer of OPA into the decision.
+     */
+    CompletableFuture<OpaDecision> send(OpaInput input, String path, ResponseHandler<OpaDecision> reader) {
+        OpaLoadBalancer loadBalancer = opaEndpoint.getOpaLoadBalancer();
+        OpaHedger hedger = opaEndpoint.getOpaHedger();
+        String url = path != null ? opaEndpoint.getOpaBaseUrl() + path : opaEndpoint.getOpaUrl();
+        if(loadBalancer == null && hedger == null) {
+            return post(url, input, reader);
+        }
+
+        try {
+            // a streamed body is read into memory so that it can be sent again
+            input.bytes();
+        } catch(IOException e) {
+            return CompletableFuture.completedFuture(OpaDecision.failure(e));
+        }
+        if(loadBalancer == null) {
+            return hedger.execute(post(url, input, reader), () -> post(url, input, reader));
+        }
+        return sendBalanced(loadBalancer, hedger, input, path, reader, ConcurrentHashMap.newKeySet(), System.nanoTime());
+    }
+
+    /**
+     * Sends the input to every policy at once and combines their decisions. The calls still in flight are
+     * cancelled as soon as the combined decision is known.
+     */
+    private CompletableFuture<OpaDecision> combine(OpaInput input, List<String> policyPaths) {
+        try {
+            // a streamed body is read into memory so that it can be sent to every policy
+            input.bytes();
+        } catch(IOException e) {
+            return CompletableFuture.completedFuture(OpaDecision.failure(e));
+        }
+
+        OpaPolicyCombination combination = opaEndpoint.getPolicyCombination();
+        OpaDecision[] decisions = new OpaDecision[policyPaths.size()];
+        List<CompletableFuture<OpaDecision>> calls = new CopyOnWriteArrayList<>();
+        CompletableFuture<OpaDecision> combined = new CompletableFuture<>();
+        combined.whenComplete((opaDecision, throwable) -> calls.forEach(call -> call.cancel(false)));
+
+        for(int i = 0; i < policyPaths.size() && !combined.isDone(); i++) {
+            int index = i;
+            CompletableFuture<OpaDecision> call = send(input, policyPaths.get(i));
+            calls.add(call);
+            call.whenComplete((opaDecision, throwable) -> {
+                OpaDecision decision;
+                synchronized(decisions) {
+                    if(combined.isDone()) {
+                        return;
+                    }
+                    decisions[index] = opaDecision != null ? opaDecision : OpaDecision.failure(throwable);
+                    decision = combine(combination, decisions, policyPaths);
+                }
+                if(decision != null) {
+                    combined.complete(decision);
+                }
+            });
+        }
+        if(combined.isDone()) {
+            // decided before every call was sent
+            calls.forEach(call -> call.cancel(false));
+        }
+        return combined;
+    }
+
+    /**
+     * The combined decision, or null while it depends on the decisions not known yet
+     */
+    private static OpaDecision combine(OpaPolicyCombination combination, OpaDecision[] decisions, List<String> policyPaths) {
+        switch(combination) {
+            case ANY_ALLOW:
+                boolean pending = false;
+                for(OpaDecision decision : decisions) {
+                    if(decision == null) {
+                        pending = true;
+                    } else if(decision.isAllowed()) {
+                        return decision;
+                    }
+                }
+                if(pending) {
+                    return null;
+                }
+                for(int i = 0; i < decisions.length; i++) {
+                    if(decisions[i].isError()) {
+                        return decisions[i].from("OPA policy " + policyPaths.get(i));
+                    }
+                }
+                return OpaDecision.deny("Not allowed by any OPA policy of " + policyPaths);
+            case FIRST_DENY:
+                for(int i = 0; i < decisions.length; i++) {
+                    if(decisions[i] == null) {
+                        return null;
+                    }
+                    if(!decisions[i].isAllowed()) {
+                        return decisions[i].from("OPA policy " + policyPaths.get(i));
+                    }
+                }
+                return OpaDecision.allow();
+            default:
+                boolean complete = true;
+                for(int i = 0; i < decisions.length; i++) {
+                    if(decisions[i] == null) {
+                        complete = false;
+                    } else if(!decisions[i].isAllowed()) {
+                        return decisions[i].from("OPA policy " + policyPaths.get(i));
+                    }
+                }
+                return complete ? OpaDecision.allow() : null;
+        }
+    }
+
+    /**
+     * Sends the input to an instance chosen by the load balancer, hedged to another instance when enabled, and
+     * again to another one while the call fails and the socket timeout has not elapsed since the first attempt
+     */
+    private CompletableFuture<OpaDecision> sendBalanced(OpaLoadBalancer loadBalancer, OpaHedger hedger, OpaInput input, String path, ResponseHandler<OpaDecision> reader,
+                                                         Set<OpaInstance> tried, long start) {
+        OpaInstance instance = loadBalancer.choose(tried);
+        tried.add(instance);
+        CompletableFuture<OpaDecision> attempt = post(loadBalancer, instance, input, path, reader);
+        if(hedger != null) {
+            attempt = hedger.execute(attempt, () -> {
+                OpaInstance backup = loadBalancer.choose(tried);
+                if(backup == null) {
+                    backup = instance;
+                }
+                tried.add(backup);
+                return post(loadBalancer, backup, input, path, reader);
+            });
+        }
+
+        return attempt.thenCompose(decision -> {
+            long timeout = TimeUnit.SECONDS.toNanos(opaEndpoint.getSocketTimeout());
+            if(!decision.isRetryable() || tried.size() == loadBalancer.getInstances().size()
+                    || (timeout > 0 && System.nanoTime() - start > timeout)) {
+                return CompletableFuture.completedFuture(decision);
+            }
+            log.debug("Calling OPA instance {} failed, retrying on another instance: {}", instance, decision.getMessage());
+            return sendBalanced(loadBalancer, hedger, input, path, reader, tried, start);
+        });
+    }
+
+    private CompletableFuture<OpaDecision> post(OpaLoadBalancer loadBalancer, OpaInstance instance, OpaInput input, String path, ResponseHandler<OpaDecision> reader) {
+        instance.requestStarted();
+        long sent = System.nanoTime();
+        CompletableFuture<OpaDecision> decision = post(path != null ? instance.getBaseUrl() + path : instance.getUrl(), input, reader);
+        decision.whenComplete((opaDecision, throwable) -> {
+            if(throwable != null) {
+                // cancelled by the hedger, the instance is neither faster nor failing
+                instance.requestCancelled();
+            } else if(opaDecision.isRetryable()) {
+                loadBalancer.requestFailed(instance, opaDecision);
+            } else {
+                loadBalancer.requestSucceeded(instance, System.nanoTime() - sent);
+            }
+        });
+        return decision;
+    }
+
+    /**
+     * Posts the input to the URL and reads the answer with the reader. Cancelling the returned future aborts the request
+     */
+    private CompletableFuture<OpaDecision> post(String url, OpaInput input, ResponseHandler<OpaDecision> reader) {
+        HttpPost httpPost = new HttpPost(url);
+        httpPost.setConfig(opaEndpoint.getRequestConfig());
+        httpPost.setEntity(input.toEntity());
+
+        OpaMetrics metrics = opaEndpoint.getMetrics();
+        OpaHedger hedger = opaEndpoint.getOpaHedger();
+        HttpClientContext context = HttpClientContext.create();
+        context.setAttribute(OpaMetrics.START_TIME, System.nanoTime());
+        metrics.requestStarted();
+
+        CompletableFuture<OpaDecision> response = opaEndpoint.getConnectionPool()
+                .execute(httpPost, context, httpResponse -> {
+                    metrics.recordHttpExchange(context, httpPost.getEntity(), httpResponse.getEntity());
+                    if(hedger != null) {
+                        hedger.recordResponse(context);
+                    }
+                    return reader.handleResponse(httpResponse);
+                }, synchronous);
+        response.whenComplete((decision, throwable) -> metrics.requestCompleted());
+
+        CompletableFuture<OpaDecision> decision = response.exceptionally(OpaDecision::failure);
+        decision.whenComplete((opaDecision, throwable) -> {
+            if(decision.isCancelled()) {
+                response.cancel(false);
+            }
+        });
+        return decision;
+    }
+
+    private OpaDecision readDecision(HttpResponse httpResponse) throws IOException {
+        if (httpResponse.getStatusLine().getStatusCode() == 200) {
+            // the remainder of the body is drained by the connection pool once the handler returns
+            OpaResult opaResult = OpaResult.read(httpResponse.getEntity().getContent());
+            return opaResult.isResult() ? OpaDecision.allow() : OpaDecision.deny();
+        }
+        if (httpResponse.getStatusLine().getStatusCode() >= 500) {
+            return OpaDecision.unavailable("Error calling OPA endpoint: " + opaEndpoint.getEndpointUri());
+        }
+        return OpaDecision.error("Error calling OPA endpoint: " + opaEndpoint.getEndpointUri());
+    }
+
+    private void complete(Exchange exchange, OpaDecision decision) {
+        try {
+            if(decision.getException() != null) {
+                handleException(decision.getException(), exchange);
+                return;
+            }
+            if(!decision.isAllowed()) {
+                handleException(decision.getMessage(), exchange);
+            }
+            exchange.getIn().setHeader("OPA-RESULT", "Valid");
+        } catch(Exception e) {
+            exchange.setException(e);
         }
     }
 
-    public void handleException(OpaEndpoint endpoint, Exception exception, Exchange exchange) throws Exception {
-        if(endpoint.getHandleError()) {
+    public void handleException(Exception exception, Exchange exchange) throws Exception {
+        if(opaEndpoint.getHandleError()) {
             exchange.getIn().setHeader("OPA-Exception", exception.getMessage());
         } else {
             exchange.setException(exception);
         }
     }
 
-    public void handleException(OpaEndpoint endpoint, String exception, Exchange exchange) throws Exception {
-        if(endpoint.getHandleError()) {
+    public void handleException(String exception, Exchange exchange) throws Exception {
+        if(opaEndpoint.getHandleError()) {
             exchange.getIn().setHeader("OPA-Exception", exception);
         } else {
             exchange.setException(new Exception(exception));
@@ -1,5 +1,5 @@
 package org.apache.camel.component.opa;
 
 public enum OpaOperationType {
-    QUERY, ACL, POLICY
+    QUERY, ACL, POLICY, DATA, FILTER
 }
@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.camel.support.LRUCacheFactory;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+
+/**
+ * Evaluates queries in-process from residual policies computed by the OPA Compile API. The input fields listed
+ * in compileUnknowns are the ones that change with every request; the rest of the input identifies a tenant, and
+ * OPA partially evaluates the query once per tenant. The residual is translated by {@link OpaResidualPolicy}
+ * into a predicate cached for compileCacheTtl seconds.
+ *
+ * Until the predicate of a tenant is available, or when its residual cannot be translated, exchanges are
+ * evaluated by OPA as usual. Compile requests are sent from a thread pool of their own, never from the thread of
+ * the exchange, even on a synchronous endpoint.
+ */
+@Slf4j
+public class OpaPartialEvaluator {
+
+    private static final String INPUT = "input";
+
+    private final OpaEndpoint opaEndpoint;
+    private final String compileUrl;
+    private final String query;
+    private final JsonArray unknowns = new JsonArray();
+    private final List<String[]> unknownPaths = new ArrayList<>();
+    private final long ttl;
+    private final Map<OpaInputKey, Entry> cache;
+    private final Set<OpaInputKey> compiling = ConcurrentHashMap.newKeySet();
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private ExecutorService executorService;
+
+    public OpaPartialEvaluator(OpaEndpoint opaEndpoint) {
+        this.opaEndpoint = opaEndpoint;
+        URI uri = URI.create(opaEndpoint.getOpaUrl());
+        this.compileUrl = uri.getScheme() + "://" + uri.getAuthority() + "/v1/compile";
+
+        String dataPrefix = "/v1/data/";
+        if(!uri.getPath().startsWith(dataPrefix)) {
+            throw new IllegalArgumentException("Partial evaluation needs an endpoint path under " + dataPrefix + ": " + uri.getPath());
+        }
+        this.query = "data." + uri.getPath().substring(dataPrefix.length()).replace('/', '.') + " == true";
+
+        for(String unknown : opaEndpoint.getCompileUnknowns().split(",")) {
+            String[] path = unknown.trim().split("\\.");
+            if(path.length < 2 || !INPUT.equals(path[0])) {
+                throw new IllegalArgumentException("Unknowns must be fields of the input, such as input.request: " + unknown);
+            }
+            unknowns.add(unknown.trim());
+            unknownPaths.add(Arrays.copyOfRange(path, 1, path.length));
+        }
+        this.ttl = TimeUnit.SECONDS.toNanos(opaEndpoint.getCompileCacheTtl());
+        this.cache = LRUCacheFactory.newLRUCache(opaEndpoint.getCompileCacheSize());
+    }
+
+    public void start() {
+        executorService = opaEndpoint.getCamelContext().getExecutorServiceManager().newDefaultThreadPool(this, "OpaCompile");
+    }
+
+    public void stop() {
+        if(executorService != null) {
+            opaEndpoint.getCamelContext().getExecutorServiceManager().shutdownNow(executorService);
+            executorService = null;
+        }
+    }
+
+    /**
+     * The decision for the input when the predicate of its tenant is cached, otherwise null and the query has to
+     * be sent to OPA. A missing or expired predicate is compiled in the background.
+     */
+    public OpaDecision evaluate(byte[] content) {
+        JsonObject input;
+        OpaInputKey tenant;
+        try {
+            JsonElement document = JsonParser.parseString(new String(content, StandardCharsets.UTF_8));
+            if(!document.isJsonObject() || !document.getAsJsonObject().has(INPUT) || !document.getAsJsonObject().get(INPUT).isJsonObject()) {
+                fallbacks.increment();
+                return null;
+            }
+            input = document.getAsJsonObject().getAsJsonObject(INPUT);
+            tenant = OpaInputKey.of(tenantInput(input));
+        } catch(JsonParseException | IOException e) {
+            fallbacks.increment();
+            return null;
+        }
+
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(tenant);
+        }
+        if(entry == null || entry.expiresAt - System.nanoTime() <= 0) {
+            compile(tenant, input);
+            fallbacks.increment();
+            return null;
+        }
+        if(entry.predicate == null) {
+            fallbacks.increment();
+            return null;
+        }
+        evaluations.increment();
+        return entry.predicate.test(input) ? OpaDecision.allow() : OpaDecision.deny();
+    }
+
+    /**
+     * A copy of the input without the unknowns
+     */
+    private JsonObject tenantInput(JsonObject input) {
+        JsonObject tenantInput = input.deepCopy();
+        for(String[] path : unknownPaths) {
+            JsonObject parent = tenantInput;
+            for(int i = 0; i < path.length - 1 && parent != null; i++) {
+                JsonElement child = parent.get(path[i]);
+                parent = child != null && child.isJsonObject() ? child.getAsJsonObject() : null;
+            }
+            if(parent != null) {
+                parent.remove(path[path.length - 1]);
+            }
+        }
+        return tenantInput;
+    }
+
+    private void compile(OpaInputKey tenant, JsonObject input) {
+        if(!compiling.add(tenant)) {
+            return;
+        }
+        JsonObject request = new JsonObject();
+        request.addProperty("query", query);
+        request.add(INPUT, tenantInput(input));
+        request.add("unknowns", unknowns);
+
+        HttpPost httpPost = new HttpPost(compileUrl);
+        httpPost.setConfig(opaEndpoint.getRequestConfig());
+        httpPost.setEntity(new StringEntity(request.toString(), ContentType.APPLICATION_JSON));
+        try {
+            // the pool thread may block on the request, the exchange goes on with OPA meanwhile
+            executorService.execute(() -> opaEndpoint.getConnectionPool()
+                    .execute(httpPost, this::translate, true)
+                    .whenComplete((predicate, throwable) -> {
+                        compiling.remove(tenant);
+                        if(throwable != null) {
+                            log.debug("Cannot compile the OPA query for a tenant: {}", OpaDecision.failure(throwable).getMessage());
+                            return;
+                        }
+                        synchronized (cache) {
+                            cache.put(tenant, new Entry(predicate.orElse(null), System.nanoTime() + ttl));
+                        }
+                    }));
+        } catch(RejectedExecutionException e) {
+            // too many tenants compiling, or stopping; a later exchange of the tenant tries again
+            compiling.remove(tenant);
+        }
+    }
+
+    private Optional<Predicate<JsonElement>> translate(HttpResponse httpResponse) throws IOException {
+        if(httpResponse.getStatusLine().getStatusCode() != 200) {
+            throw new IOException("OPA answered " + httpResponse.getStatusLine() + " to the compile request");
+        }
+        JsonObject response;
+        try (InputStreamReader reader = new InputStreamReader(httpResponse.getEntity().getContent(), StandardCharsets.UTF_8)) {
+            response = JsonParser.parseReader(reader).getAsJsonObject();
+        }
+        try {
+            return Optional.of(OpaResidualPolicy.translate(response.has("result") ? response.getAsJsonObject("result") : new JsonObject()));
+        } catch(RuntimeException e) {
+            // also raised by residuals not shaped as expected, cached as unsupported so that OPA is not asked to compile the same tenant again until it expires
+            log.debug("Residual OPA policy not supported, querying OPA instead: {}", e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Exchanges evaluated in-process
+     */
+    public long getEvaluations() {
+        return evaluations.sum();
+    }
+
+    /**
+     * Exchanges sent to OPA for lack of a usable predicate
+     */
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    private static final class Entry {
+        private final Predicate<JsonElement> predicate;
+        private final long expiresAt;
+
+        private Entry(Predicate<JsonElement> predicate, long expiresAt) {
+            this.predicate = predicate;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package org.apache.camel.component.opa;
+
+public enum OpaPolicyCombination {
+    ALL_ALLOW, ANY_ALLOW, FIRST_DENY
+}
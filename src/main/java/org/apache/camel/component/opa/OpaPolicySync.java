@@ -0,0 +1,378 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.JarURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Upserts Rego modules on OPA with <code>PUT /v1/policies/{id}</code>. The modules come from the message body or
+ * from the policySource directory, on the file system or the classpath. The checksum of every module accepted
+ * by OPA is kept so that unchanged modules are not uploaded again, which would make OPA recompile its policies
+ * for nothing. Changed modules are uploaded in parallel, at most policyUploadConcurrency at a time.
+ */
+@Slf4j
+public class OpaPolicySync {
+
+    private static final String REGO_EXTENSION = ".rego";
+
+    private final OpaEndpoint opaEndpoint;
+    private final String policiesUrl;
+    private final Map<String, String> checksums = new ConcurrentHashMap<>();
+    private ExecutorService uploader;
+
+    public OpaPolicySync(OpaEndpoint opaEndpoint) {
+        this.opaEndpoint = opaEndpoint;
+        URI uri = URI.create(opaEndpoint.getOpaUrl());
+        this.policiesUrl = uri.getScheme() + "://" + uri.getAuthority() + "/v1/policies/";
+    }
+
+    public void start() {
+        uploader = opaEndpoint.getCamelContext().getExecutorServiceManager()
+                .newFixedThreadPool(this, "OpaPolicySync", Math.max(1, opaEndpoint.getPolicyUploadConcurrency()));
+    }
+
+    public void stop() {
+        if(uploader != null) {
+            opaEndpoint.getCamelContext().getExecutorServiceManager().shutdownGraceful(uploader);
+            uploader = null;
+        }
+        checksums.clear();
+    }
+
+    /**
+     * The modules to upload, by id: every .rego file of the policySource directory, or the message body. A
+     * body can be a Map of modules by id, or a single module identified by the OPA-PolicyId or CamelFileName
+     * header.
+     */
+    public Map<String, byte[]> modules(Exchange exchange) throws IOException {
+        if(opaEndpoint.getPolicySource() != null) {
+            return load(opaEndpoint.getPolicySource());
+        }
+
+        Message message = exchange.getIn();
+        Map<String, byte[]> modules = new LinkedHashMap<>();
+        if(message.getBody() instanceof Map) {
+            for(Map.Entry<?, ?> module : ((Map<?, ?>) message.getBody()).entrySet()) {
+                modules.put(String.valueOf(module.getKey()), toBytes(module.getValue()));
+            }
+            return modules;
+        }
+
+        String id = message.getHeader("OPA-PolicyId", String.class);
+        if(id == null) {
+            id = message.getHeader(Exchange.FILE_NAME, String.class);
+        }
+        if(id == null) {
+            throw new IOException("Missing OPA-PolicyId header to upload the policy");
+        }
+        modules.put(id, toBytes(message.getBody(String.class)));
+        return modules;
+    }
+
+    private byte[] toBytes(Object module) {
+        if(module instanceof byte[]) {
+            return (byte[]) module;
+        }
+        return module != null ? module.toString().getBytes(StandardCharsets.UTF_8) : new byte[0];
+    }
+
+    private Map<String, byte[]> load(String source) throws IOException {
+        Map<String, byte[]> modules = new TreeMap<>();
+        if(source.startsWith("classpath:")) {
+            String path = source.substring("classpath:".length()).replaceAll("^/+", "").replaceAll("/+$", "");
+            URL url = opaEndpoint.getCamelContext().getClassResolver().loadResourceAsURL(path);
+            if(url == null) {
+                throw new IOException("Policy directory not found on the classpath: " + path);
+            }
+            if("jar".equals(url.getProtocol())) {
+                loadJar((JarURLConnection) url.openConnection(), modules);
+                return modules;
+            }
+            try {
+                loadDirectory(new File(url.toURI()).toPath(), modules);
+            } catch(Exception e) {
+                throw new IOException("Cannot read policy directory " + url, e);
+            }
+            return modules;
+        }
+        loadDirectory(new File(source.startsWith("file:") ? source.substring("file:".length()) : source).toPath(), modules);
+        return modules;
+    }
+
+    private void loadDirectory(Path directory, Map<String, byte[]> modules) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for(Path file : (Iterable<Path>) files::iterator) {
+                if(Files.isRegularFile(file) && file.toString().endsWith(REGO_EXTENSION)) {
+                    modules.put(directory.relativize(file).toString().replace(File.separatorChar, '/'), Files.readAllBytes(file));
+                }
+            }
+        }
+    }
+
+    private void loadJar(JarURLConnection connection, Map<String, byte[]> modules) throws IOException {
+        String prefix = connection.getEntryName() + "/";
+        connection.setUseCaches(false);
+        try (JarFile jarFile = connection.getJarFile()) {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while(entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if(!entry.isDirectory() && entry.getName().startsWith(prefix) && entry.getName().endsWith(REGO_EXTENSION)) {
+                    try (InputStream inputStream = jarFile.getInputStream(entry)) {
+                        modules.put(entry.getName().substring(prefix.length()), OpaIOHelper.readFully(inputStream));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Uploads the modules that changed since they were last accepted by OPA. A module that cannot be uploaded is
+     * reported in the errors of the result, the others are still uploaded.
+     *
+     * Before skipping a module the checksums are checked against the modules OPA holds, so that a module lost by
+     * a restart of OPA, or deleted or changed behind the component's back, is uploaded again.
+     */
+    public CompletableFuture<Result> sync(Map<String, byte[]> modules) {
+        Result result = new Result();
+        Map<String, String> moduleChecksums = new LinkedHashMap<>();
+        boolean unchanged = false;
+        for(Map.Entry<String, byte[]> module : modules.entrySet()) {
+            String checksum = checksum(module.getValue());
+            moduleChecksums.put(module.getKey(), checksum);
+            unchanged |= checksum.equals(checksums.get(module.getKey()));
+        }
+        if(unchanged) {
+            Map<String, String> held = heldChecksums();
+            if(held != null) {
+                checksums.clear();
+                checksums.putAll(held);
+            }
+        }
+
+        List<CompletableFuture<Void>> uploads = new ArrayList<>();
+        for(Map.Entry<String, byte[]> module : modules.entrySet()) {
+            String id = module.getKey();
+            String checksum = moduleChecksums.get(id);
+            if(checksum.equals(checksums.get(id))) {
+                result.skipped.add(id);
+                continue;
+            }
+            try {
+                uploads.add(CompletableFuture.runAsync(() -> upload(id, module.getValue(), checksum, result), uploader)
+                        .exceptionally(throwable -> {
+                            failed(id, OpaDecision.failure(throwable).getMessage(), result);
+                            return null;
+                        }));
+            } catch(RejectedExecutionException e) {
+                failed(id, "Policy upload rejected: " + e.getMessage(), result);
+            }
+        }
+        return CompletableFuture.allOf(uploads.toArray(new CompletableFuture[0])).thenApply(done -> result);
+    }
+
+    private void upload(String id, byte[] module, String checksum, Result result) {
+        long start = System.nanoTime();
+        String error;
+        try {
+            HttpPut httpPut = new HttpPut(policiesUrl + encodePath(id));
+            httpPut.setConfig(opaEndpoint.getRequestConfig());
+            httpPut.setEntity(new ByteArrayEntity(module, ContentType.TEXT_PLAIN));
+            error = opaEndpoint.getConnectionPool().execute(httpPut, this::readError, true).join();
+        } catch(Exception e) {
+            error = OpaDecision.failure(e).getMessage();
+        }
+
+        synchronized (result) {
+            result.timings.put(id, (System.nanoTime() - start) / 1_000_000);
+            if(error == null) {
+                checksums.put(id, checksum);
+                result.uploaded.add(id);
+            } else {
+                failed(id, error, result);
+            }
+        }
+    }
+
+    /**
+     * The checksums of the modules OPA holds, by id, or null when they cannot be listed
+     */
+    private Map<String, String> heldChecksums() {
+        HttpGet httpGet = new HttpGet(policiesUrl.substring(0, policiesUrl.length() - 1));
+        httpGet.setConfig(opaEndpoint.getRequestConfig());
+        try {
+            return opaEndpoint.getConnectionPool().execute(httpGet, this::readChecksums, true).join();
+        } catch(Exception e) {
+            log.debug("Cannot list the OPA policies, relying on the modules uploaded before: {}", OpaDecision.failure(e).getMessage());
+            return null;
+        }
+    }
+
+    private Map<String, String> readChecksums(HttpResponse httpResponse) throws IOException {
+        if(httpResponse.getStatusLine().getStatusCode() != 200) {
+            throw new IOException("OPA answered " + httpResponse.getStatusLine());
+        }
+        // {"result": [{"id": "...", "raw": "...", "ast": {...}}]}
+        JsonObject response = JsonParser.parseString(EntityUtils.toString(httpResponse.getEntity(), StandardCharsets.UTF_8)).getAsJsonObject();
+        Map<String, String> held = new ConcurrentHashMap<>();
+        JsonArray policies = response.has("result") && response.get("result").isJsonArray() ? response.getAsJsonArray("result") : new JsonArray();
+        for(JsonElement policy : policies) {
+            JsonObject details = policy.getAsJsonObject();
+            if(details.has("id") && details.has("raw")) {
+                held.put(details.get("id").getAsString(), checksum(details.get("raw").getAsString().getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+        return held;
+    }
+
+    private void failed(String id, String error, Result result) {
+        synchronized (result) {
+            // OPA may keep an older version, upload it again next time
+            checksums.remove(id);
+            result.errors.put(id, error);
+        }
+    }
+
+    /**
+     * The module id with every path segment URL encoded, ids are paths such as <code>authz/rules.rego</code>
+     */
+    private static String encodePath(String id) {
+        StringJoiner path = new StringJoiner("/");
+        try {
+            for(String segment : id.split("/", -1)) {
+                path.add(URLEncoder.encode(segment, "UTF-8").replace("+", "%20"));
+            }
+        } catch(UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return path.toString();
+    }
+
+    /**
+     * Null when OPA accepted the module, otherwise the compile errors it reported
+     */
+    private String readError(HttpResponse httpResponse) throws IOException {
+        if(httpResponse.getStatusLine().getStatusCode() == 200) {
+            return null;
+        }
+        if(httpResponse.getEntity() == null) {
+            return httpResponse.getStatusLine().toString();
+        }
+        String body = EntityUtils.toString(httpResponse.getEntity(), StandardCharsets.UTF_8);
+        try {
+            JsonObject response = JsonParser.parseString(body).getAsJsonObject();
+            if(!response.has("errors")) {
+                return response.has("message") ? response.get("message").getAsString() : body;
+            }
+            StringBuilder errors = new StringBuilder();
+            for(JsonElement error : response.getAsJsonArray("errors")) {
+                JsonObject details = error.getAsJsonObject();
+                if(errors.length() > 0) {
+                    errors.append("; ");
+                }
+                if(details.has("location")) {
+                    JsonObject location = details.getAsJsonObject("location");
+                    errors.append(location.has("row") ? location.get("row").getAsInt() : 0).append(':')
+                            .append(location.has("col") ? location.get("col").getAsInt() : 0).append(' ');
+                }
+                errors.append(details.has("message") ? details.get("message").getAsString() : details.toString());
+            }
+            return errors.toString();
+        } catch(RuntimeException e) {
+            return body;
+        }
+    }
+
+    private static String checksum(byte[] module) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(module);
+            StringBuilder checksum = new StringBuilder(digest.length * 2);
+            for(byte b : digest) {
+                checksum.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return checksum.toString();
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Outcome of a sync: the modules uploaded, the ones skipped as unchanged, the upload time in milliseconds
+     * and the errors reported by OPA, by module id
+     */
+    public static final class Result {
+        private final List<String> uploaded = new ArrayList<>();
+        private final List<String> skipped = new ArrayList<>();
+        private final Map<String, Long> timings = new TreeMap<>();
+        private final Map<String, String> errors = new TreeMap<>();
+
+        public List<String> getUploaded() {
+            return uploaded;
+        }
+
+        public List<String> getSkipped() {
+            return skipped;
+        }
+
+        public Map<String, Long> getTimings() {
+            return timings;
+        }
+
+        public Map<String, String> getErrors() {
+            return errors;
+        }
+    }
+}
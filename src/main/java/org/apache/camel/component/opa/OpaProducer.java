@@ -17,26 +17,38 @@
 package org.apache.camel.component.opa;
 
 import lombok.extern.slf4j.Slf4j;
+import org.apache.camel.AsyncCallback;
 import org.apache.camel.Exchange;
-import org.apache.camel.support.DefaultProducer;
+import org.apache.camel.support.DefaultAsyncProducer;
 
 @Slf4j
-public class OpaProducer extends DefaultProducer {
+public class OpaProducer extends DefaultAsyncProducer {
+
+    private final OpaOperation opaOperation;
 
     public OpaProducer(OpaEndpoint endpoint) throws Exception {
         super(endpoint);
+        this.opaOperation = new OpaOperation(endpoint);
     }
 
     @Override
-    public void process(Exchange exchange) throws Exception {
+    public OpaEndpoint getEndpoint() {
+        return (OpaEndpoint) super.getEndpoint();
+    }
 
-        OpaEndpoint opaEndpoint = (OpaEndpoint) getEndpoint();
-        OpaOperation opaOperation = new OpaOperation();
+    @Override
+    public boolean process(Exchange exchange, AsyncCallback callback) {
+
+        if(getEndpoint().getOperationType() != null) {
+            return opaOperation.processOperation(exchange, callback);
+        }
 
-        if(opaEndpoint.getOperationType() != null) {
-            opaOperation.processOperation(opaEndpoint, exchange);
-        } else {
-            opaOperation.handleException(opaEndpoint, "Error calling OPA endpoint: Missing Operation type", exchange);
+        try {
+            opaOperation.handleException("Error calling OPA endpoint: Missing Operation type", exchange);
+        } catch(Exception e) {
+            exchange.setException(e);
         }
+        callback.done(true);
+        return true;
     }
 }
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent evaluations of the same input share a single in-flight OPA request. Every caller gets the
+ * same decision, including failures and timeouts. Each caller gets its own future, so that a caller cancelling
+ * its evaluation does not cancel the request the others wait for.
+ */
+public class OpaRequestCoalescer {
+
+    private final ConcurrentMap<OpaInputKey, CompletableFuture<OpaDecision>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    public CompletableFuture<OpaDecision> execute(OpaInputKey key, Supplier<CompletableFuture<OpaDecision>> call) {
+        CompletableFuture<OpaDecision> flight = new CompletableFuture<>();
+        CompletableFuture<OpaDecision> existing = inFlight.putIfAbsent(key, flight);
+        if(existing != null) {
+            coalesced.increment();
+            return existing.thenApply(decision -> decision);
+        }
+
+        CompletableFuture<OpaDecision> request;
+        try {
+            request = call.get();
+        } catch(RuntimeException e) {
+            request = CompletableFuture.completedFuture(OpaDecision.failure(e));
+        }
+        request.whenComplete((decision, throwable) -> {
+            // leave the map first so that callers arriving from now on trigger a fresh request
+            inFlight.remove(key, flight);
+            if(throwable != null) {
+                flight.completeExceptionally(throwable);
+            } else {
+                flight.complete(decision);
+            }
+        });
+        return flight.thenApply(decision -> decision);
+    }
+
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Translates the residual queries returned by the OPA Compile API into a Java predicate over the input
+ * document. The queries are a disjunction of conjunctions of expressions. Supported expressions are the
+ * comparisons (eq, equal, neq, lt, gt, lte, gte), set membership (internal.member_2, or a comparison with an
+ * element of a collection such as <code>input.roles[_]</code>), references tested for truth, and their
+ * negations. References may only point into the input, and a variable may only be used once in a query since
+ * the predicate does not unify them. Anything else throws an {@link UnsupportedOperationException} so that the
+ * endpoint keeps asking OPA.
+ */
+public final class OpaResidualPolicy {
+
+    private OpaResidualPolicy() {
+    }
+
+    /**
+     * The predicate of the "result" of a Compile API answer
+     */
+    public static Predicate<JsonElement> translate(JsonObject result) {
+        if(result.has("support") && result.getAsJsonArray("support").size() > 0) {
+            throw new UnsupportedOperationException("Residual policy depends on support modules");
+        }
+        if(!result.has("queries")) {
+            // the query is undefined whatever the unknowns are
+            return input -> false;
+        }
+
+        List<Predicate<JsonElement>> disjunction = new ArrayList<>();
+        for(JsonElement query : result.getAsJsonArray("queries")) {
+            disjunction.add(conjunction(query.getAsJsonArray()));
+        }
+        return input -> {
+            for(Predicate<JsonElement> conjunction : disjunction) {
+                if(conjunction.test(input)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    private static Predicate<JsonElement> conjunction(JsonArray query) {
+        Map<String, Integer> variables = new HashMap<>();
+        List<Predicate<JsonElement>> expressions = new ArrayList<>();
+        for(JsonElement expression : query) {
+            expressions.add(expression(expression.getAsJsonObject(), variables));
+        }
+        for(Map.Entry<String, Integer> variable : variables.entrySet()) {
+            if(variable.getValue() > 1) {
+                throw new UnsupportedOperationException("Variable " + variable.getKey() + " is used more than once");
+            }
+        }
+        return input -> {
+            for(Predicate<JsonElement> expression : expressions) {
+                if(!expression.test(input)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private static Predicate<JsonElement> expression(JsonObject expression, Map<String, Integer> variables) {
+        if(expression.has("with")) {
+            throw new UnsupportedOperationException("with modifier");
+        }
+        Predicate<JsonElement> predicate;
+        JsonElement terms = expression.get("terms");
+        if(terms.isJsonObject()) {
+            Function<JsonElement, List<JsonElement>> operand = operand(terms.getAsJsonObject(), variables);
+            predicate = input -> {
+                for(JsonElement value : operand.apply(input)) {
+                    if(!(value.isJsonPrimitive() && value.getAsJsonPrimitive().isBoolean() && !value.getAsBoolean())) {
+                        return true;
+                    }
+                }
+                return false;
+            };
+        } else {
+            predicate = call(terms.getAsJsonArray(), variables);
+        }
+        if(expression.has("negated") && expression.get("negated").getAsBoolean()) {
+            return predicate.negate();
+        }
+        return predicate;
+    }
+
+    private static Predicate<JsonElement> call(JsonArray terms, Map<String, Integer> variables) {
+        String operator = operator(terms.get(0).getAsJsonObject());
+        if(terms.size() != 3) {
+            throw new UnsupportedOperationException("Call to " + operator + " with " + (terms.size() - 1) + " arguments");
+        }
+        Function<JsonElement, List<JsonElement>> left = operand(terms.get(1).getAsJsonObject(), variables);
+        Function<JsonElement, List<JsonElement>> right = operand(terms.get(2).getAsJsonObject(), variables);
+
+        if("internal.member_2".equals(operator)) {
+            return input -> {
+                List<JsonElement> leftValues = left.apply(input);
+                for(JsonElement collection : right.apply(input)) {
+                    for(JsonElement element : elements(collection)) {
+                        if(leftValues.contains(element)) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            };
+        }
+
+        Comparison comparison = comparison(operator);
+        return input -> {
+            List<JsonElement> rightValues = right.apply(input);
+            for(JsonElement leftValue : left.apply(input)) {
+                for(JsonElement rightValue : rightValues) {
+                    if(comparison.test(leftValue, rightValue)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        };
+    }
+
+    private static String operator(JsonObject term) {
+        if(!"ref".equals(term.get("type").getAsString())) {
+            throw new UnsupportedOperationException("Operator term of type " + term.get("type").getAsString());
+        }
+        StringBuilder operator = new StringBuilder();
+        for(JsonElement part : term.getAsJsonArray("value")) {
+            if(operator.length() > 0) {
+                operator.append('.');
+            }
+            operator.append(part.getAsJsonObject().get("value").getAsString());
+        }
+        return operator.toString();
+    }
+
+    private static Comparison comparison(String operator) {
+        switch(operator) {
+            case "eq":
+            case "equal":
+                return JsonElement::equals;
+            case "neq":
+                return (left, right) -> !left.equals(right);
+            case "lt":
+                return (left, right) -> isOrdered(left, right) && compare(left, right) < 0;
+            case "gt":
+                return (left, right) -> isOrdered(left, right) && compare(left, right) > 0;
+            case "lte":
+                return (left, right) -> isOrdered(left, right) && compare(left, right) <= 0;
+            case "gte":
+                return (left, right) -> isOrdered(left, right) && compare(left, right) >= 0;
+            default:
+                throw new UnsupportedOperationException("Operator " + operator);
+        }
+    }
+
+    /**
+     * Only two numbers or two strings can be ordered, any other comparison fails
+     */
+    private static boolean isOrdered(JsonElement left, JsonElement right) {
+        if(!left.isJsonPrimitive() || !right.isJsonPrimitive()) {
+            return false;
+        }
+        JsonPrimitive leftPrimitive = left.getAsJsonPrimitive();
+        JsonPrimitive rightPrimitive = right.getAsJsonPrimitive();
+        return (leftPrimitive.isNumber() && rightPrimitive.isNumber()) || (leftPrimitive.isString() && rightPrimitive.isString());
+    }
+
+    private static int compare(JsonElement left, JsonElement right) {
+        JsonPrimitive leftPrimitive = left.getAsJsonPrimitive();
+        JsonPrimitive rightPrimitive = right.getAsJsonPrimitive();
+        if(leftPrimitive.isNumber()) {
+            return leftPrimitive.getAsBigDecimal().compareTo(rightPrimitive.getAsBigDecimal());
+        }
+        return leftPrimitive.getAsString().compareTo(rightPrimitive.getAsString());
+    }
+
+    /**
+     * An operand evaluates to all the values it may take: none when undefined, several when a reference
+     * iterates over a collection
+     */
+    private static Function<JsonElement, List<JsonElement>> operand(JsonObject term, Map<String, Integer> variables) {
+        String type = term.get("type").getAsString();
+        if(!"ref".equals(type)) {
+            List<JsonElement> value = Collections.singletonList(literal(term));
+            return input -> value;
+        }
+
+        JsonArray ref = term.getAsJsonArray("value");
+        JsonObject head = ref.get(0).getAsJsonObject();
+        List<JsonObject> path = new ArrayList<>();
+        for(int i = 1; i < ref.size(); i++) {
+            JsonObject part = ref.get(i).getAsJsonObject();
+            if("var".equals(part.get("type").getAsString())) {
+                variables.merge(part.get("value").getAsString(), 1, Integer::sum);
+            } else if(!isScalar(part)) {
+                throw new UnsupportedOperationException("Reference with a " + part.get("type").getAsString() + " key");
+            }
+            path.add(part);
+        }
+
+        JsonElement root;
+        if("var".equals(head.get("type").getAsString()) && "input".equals(head.get("value").getAsString())) {
+            root = null;
+        } else if("array".equals(head.get("type").getAsString()) || "set".equals(head.get("type").getAsString())) {
+            root = literal(head);
+        } else {
+            throw new UnsupportedOperationException("Reference to " + head);
+        }
+        return input -> {
+            List<JsonElement> values = Collections.singletonList(root != null ? root : input);
+            for(JsonObject part : path) {
+                List<JsonElement> next = new ArrayList<>();
+                for(JsonElement value : values) {
+                    select(value, part, next);
+                }
+                values = next;
+            }
+            return values;
+        };
+    }
+
+    private static void select(JsonElement value, JsonObject part, List<JsonElement> selected) {
+        if("var".equals(part.get("type").getAsString())) {
+            selected.addAll(elements(value));
+            return;
+        }
+        JsonElement key = part.get("value");
+        if(value.isJsonObject() && key.getAsJsonPrimitive().isString()) {
+            JsonElement member = value.getAsJsonObject().get(key.getAsString());
+            if(member != null) {
+                selected.add(member);
+            }
+        } else if(value.isJsonArray() && key.getAsJsonPrimitive().isNumber()) {
+            int index = key.getAsInt();
+            if(index >= 0 && index < value.getAsJsonArray().size()) {
+                selected.add(value.getAsJsonArray().get(index));
+            }
+        }
+    }
+
+    private static List<JsonElement> elements(JsonElement collection) {
+        List<JsonElement> elements = new ArrayList<>();
+        if(collection.isJsonArray()) {
+            collection.getAsJsonArray().forEach(elements::add);
+        } else if(collection.isJsonObject()) {
+            for(Map.Entry<String, JsonElement> member : collection.getAsJsonObject().entrySet()) {
+                elements.add(member.getValue());
+            }
+        }
+        return elements;
+    }
+
+    private static boolean isScalar(JsonObject term) {
+        String type = term.get("type").getAsString();
+        return "string".equals(type) || "number".equals(type) || "boolean".equals(type) || "null".equals(type);
+    }
+
+    private static JsonElement literal(JsonObject term) {
+        String type = term.get("type").getAsString();
+        switch(type) {
+            case "null":
+                return JsonNull.INSTANCE;
+            case "string":
+            case "number":
+            case "boolean":
+                return term.get("value");
+            case "array":
+            case "set":
+                JsonArray array = new JsonArray();
+                for(JsonElement element : term.getAsJsonArray("value")) {
+                    array.add(literal(element.getAsJsonObject()));
+                }
+                return array;
+            case "object":
+                JsonObject object = new JsonObject();
+                for(JsonElement member : term.getAsJsonArray("value")) {
+                    JsonArray pair = member.getAsJsonArray();
+                    JsonElement key = literal(pair.get(0).getAsJsonObject());
+                    if(!key.isJsonPrimitive() || !key.getAsJsonPrimitive().isString()) {
+                        throw new UnsupportedOperationException("Object with a non string key");
+                    }
+                    object.add(key.getAsString(), literal(pair.get(1).getAsJsonObject()));
+                }
+                return object;
+            default:
+                throw new UnsupportedOperationException("Term of type " + type);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Comparison {
+        boolean test(JsonElement left, JsonElement right);
+    }
+}
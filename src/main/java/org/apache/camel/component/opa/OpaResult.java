@@ -1,8 +1,36 @@
 package org.apache.camel.component.opa;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import lombok.Data;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
 @Data
 public class OpaResult {
     private boolean result;
+
+    /**
+     * Reads an OPA response up to its result, the rest of the document is left unread. An undefined result
+     * reads as not allowed.
+     */
+    public static OpaResult read(InputStream inputStream) throws IOException {
+        OpaResult opaResult = new OpaResult();
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        reader.beginObject();
+        while(reader.hasNext()) {
+            if(!"result".equals(reader.nextName())) {
+                reader.skipValue();
+            } else if(reader.peek() == JsonToken.BOOLEAN) {
+                opaResult.setResult(reader.nextBoolean());
+                break;
+            } else {
+                throw new IOException("OPA result is not a boolean: " + reader.peek());
+            }
+        }
+        return opaResult;
+    }
 }
@@ -0,0 +1,352 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Connects the HTTP client to an OPA server listening on a Unix domain socket, whatever the host of the request.
+ * Unix domain socket channels only exist since Java 16, they are looked up by reflection so that the component
+ * still runs on older versions as long as the transport is not used.
+ * A connection waiting for room in the backlog of OPA is abandoned after the connect timeout, on the given timer.
+ */
+public class OpaUnixSocketFactory implements ConnectionSocketFactory {
+
+    private final SocketAddress address;
+    private final ScheduledExecutorService timer;
+
+    public OpaUnixSocketFactory(String path, ScheduledExecutorService timer) {
+        this.address = address(path);
+        this.timer = timer;
+    }
+
+    private static SocketAddress address(String path) {
+        try {
+            return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                    .getMethod("of", String.class)
+                    .invoke(null, path);
+        } catch(ClassNotFoundException | NoSuchMethodException e) {
+            throw new IllegalStateException("Unix domain sockets need Java 16 or later", e);
+        } catch(IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalArgumentException("Invalid Unix domain socket path: " + path, e);
+        }
+    }
+
+    private static SocketChannel open() throws IOException {
+        try {
+            ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+            return (SocketChannel) SocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, unix);
+        } catch(InvocationTargetException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch(ReflectiveOperationException | IllegalArgumentException e) {
+            throw new IllegalStateException("Unix domain sockets need Java 16 or later", e);
+        }
+    }
+
+    @Override
+    public Socket createSocket(HttpContext context) {
+        return new UnixSocket(timer);
+    }
+
+    @Override
+    public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+                                InetSocketAddress localAddress, HttpContext context) throws IOException {
+        UnixSocket unixSocket = socket instanceof UnixSocket ? (UnixSocket) socket : new UnixSocket(timer);
+        unixSocket.connect(address, connectTimeout);
+        return unixSocket;
+    }
+
+    /**
+     * The socket handed to the HTTP client. The channel is non-blocking and waits on a selector, so that the
+     * socket timeout of the client still bounds reads and writes.
+     */
+    static class UnixSocket extends Socket {
+
+        private final ScheduledExecutorService timer;
+        private volatile SocketChannel channel;
+        private Selector selector;
+        private int soTimeout;
+        private boolean inputShutdown;
+        private boolean outputShutdown;
+        private volatile boolean closed;
+        private final InputStream inputStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if(len == 0) {
+                    return 0;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                int read;
+                while((read = channel.read(buffer)) == 0) {
+                    await(SelectionKey.OP_READ);
+                }
+                return read;
+            }
+        };
+        private final OutputStream outputStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while(buffer.hasRemaining()) {
+                    if(channel.write(buffer) == 0) {
+                        await(SelectionKey.OP_WRITE);
+                    }
+                }
+            }
+        };
+
+        UnixSocket(ScheduledExecutorService timer) {
+            this.timer = timer;
+        }
+
+        @Override
+        public void connect(SocketAddress address) throws IOException {
+            connect(address, 0);
+        }
+
+        @Override
+        public void connect(SocketAddress address, int timeout) throws IOException {
+            channel = open();
+            // a non-blocking connect fails at once when the backlog is full, so the blocking one is aborted instead
+            ScheduledFuture<?> abort = timeout > 0 && timer != null
+                    ? timer.schedule(this::abortConnect, timeout, TimeUnit.MILLISECONDS) : null;
+            try {
+                channel.connect(address);
+                if(abort != null && !abort.cancel(false)) {
+                    throw new SocketTimeoutException("Connect timed out");
+                }
+                channel.configureBlocking(false);
+                selector = Selector.open();
+            } catch(IOException e) {
+                if(abort != null) {
+                    abort.cancel(false);
+                }
+                close();
+                if(e instanceof AsynchronousCloseException) {
+                    throw new SocketTimeoutException("Connect timed out");
+                }
+                throw e;
+            }
+        }
+
+        private void abortConnect() {
+            try {
+                channel.close();
+            } catch(IOException e) {
+                // the connect fails either way
+            }
+        }
+
+        private void await(int operation) throws IOException {
+            if(closed) {
+                throw new SocketException("Socket closed");
+            }
+            SelectionKey key = channel.register(selector, operation);
+            try {
+                int selected = selector.select(soTimeout);
+                if(closed) {
+                    throw new SocketException("Socket closed");
+                }
+                if(selected == 0) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+                selector.selectedKeys().clear();
+            } finally {
+                if(key.isValid()) {
+                    key.interestOps(0);
+                }
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            if(!isConnected()) {
+                throw new IOException("Unix domain socket is not connected");
+            }
+            return inputStream;
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            if(!isConnected()) {
+                throw new IOException("Unix domain socket is not connected");
+            }
+            return outputStream;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            try {
+                if(selector != null) {
+                    selector.close();
+                }
+            } finally {
+                if(channel != null) {
+                    channel.close();
+                }
+            }
+        }
+
+        @Override
+        public void shutdownInput() throws IOException {
+            channel.shutdownInput();
+            inputShutdown = true;
+        }
+
+        @Override
+        public void shutdownOutput() throws IOException {
+            channel.shutdownOutput();
+            outputShutdown = true;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return channel != null && channel.isConnected();
+        }
+
+        @Override
+        public boolean isBound() {
+            return isConnected();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public boolean isInputShutdown() {
+            return inputShutdown;
+        }
+
+        @Override
+        public boolean isOutputShutdown() {
+            return outputShutdown;
+        }
+
+        @Override
+        public void setSoTimeout(int timeout) {
+            this.soTimeout = timeout;
+        }
+
+        @Override
+        public int getSoTimeout() {
+            return soTimeout;
+        }
+
+        // TCP options have no meaning on a Unix domain socket
+
+        @Override
+        public void setTcpNoDelay(boolean on) {
+        }
+
+        @Override
+        public void setKeepAlive(boolean on) {
+        }
+
+        @Override
+        public void setReuseAddress(boolean on) {
+        }
+
+        @Override
+        public void setSoLinger(boolean on, int linger) {
+        }
+
+        @Override
+        public int getSoLinger() {
+            return -1;
+        }
+
+        @Override
+        public void setReceiveBufferSize(int size) {
+        }
+
+        @Override
+        public void setSendBufferSize(int size) {
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            return null;
+        }
+
+        @Override
+        public InetAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public int getPort() {
+            return 0;
+        }
+
+        @Override
+        public int getLocalPort() {
+            return -1;
+        }
+
+        @Override
+        public SocketAddress getRemoteSocketAddress() {
+            return null;
+        }
+
+        @Override
+        public SocketAddress getLocalSocketAddress() {
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "UnixSocket[" + (channel != null ? channel.toString() : "unconnected") + "]";
+        }
+    }
+}
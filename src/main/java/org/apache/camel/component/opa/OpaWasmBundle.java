@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+/**
+ * The policy and the data of an OPA Wasm bundle, read from the <code>bundle.tar.gz</code> produced by
+ * <code>opa build -t wasm</code> or from a plain <code>policy.wasm</code>.
+ */
+final class OpaWasmBundle {
+
+    private final byte[] wasm;
+    private final byte[] data;
+
+    private OpaWasmBundle(byte[] wasm, byte[] data) {
+        this.wasm = wasm;
+        this.data = data;
+    }
+
+    /**
+     * Reads the bundle, whose name is only used in error messages
+     */
+    static OpaWasmBundle read(String name, byte[] content) throws IOException {
+        if(!isGzip(content)) {
+            return new OpaWasmBundle(content, null);
+        }
+
+        byte[] wasm = null;
+        byte[] data = null;
+        try (TarArchiveInputStream tar = new TarArchiveInputStream(new GZIPInputStream(new ByteArrayInputStream(content)))) {
+            TarArchiveEntry entry;
+            while((entry = tar.getNextTarEntry()) != null) {
+                if(!entry.isFile()) {
+                    continue;
+                }
+                // GNU long names and pax headers are resolved by the archive stream
+                String entryName = entry.getName();
+                if(entryName.endsWith("policy.wasm")) {
+                    wasm = OpaIOHelper.readFully(tar);
+                } else if(entryName.equals("/data.json") || entryName.equals("data.json")) {
+                    data = OpaIOHelper.readFully(tar);
+                }
+            }
+        }
+        if(wasm == null) {
+            throw new IOException("No policy.wasm in OPA bundle " + name);
+        }
+        return new OpaWasmBundle(wasm, data);
+    }
+
+    private static boolean isGzip(byte[] content) {
+        return content.length > 2 && (content[0] & 0xff) == 0x1f && (content[1] & 0xff) == 0x8b;
+    }
+
+    byte[] getWasm() {
+        return wasm;
+    }
+
+    /**
+     * The data document of the bundle, or null when it has none
+     */
+    byte[] getData() {
+        return data;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.opa;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.styra.opa.wasm.OpaPolicy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.camel.support.ResourceHelper;
+
+/**
+ * Evaluates queries in-process with a policy compiled to WebAssembly (<code>opa build -t wasm</code>). The
+ * bundle is either the <code>bundle.tar.gz</code> produced by OPA or a plain <code>policy.wasm</code>, loaded
+ * from the classpath or the file system.
+ *
+ * Policy instances are not thread safe, so a fixed number of them is pooled. Bundles on the file system are
+ * checked for changes and the pool is rebuilt when they are modified.
+ *
+ * opa-java-wasm runs on Java 11 or later.
+ */
+@Slf4j
+public class OpaWasmEvaluator {
+
+    private final OpaEndpoint opaEndpoint;
+    private final String bundle;
+    private final String entrypoint;
+    private final File bundleFile;
+    private volatile BlockingQueue<OpaPolicy> instances;
+    private volatile long bundleLastModified;
+    private ScheduledExecutorService reloader;
+
+    public OpaWasmEvaluator(OpaEndpoint opaEndpoint) {
+        this.opaEndpoint = opaEndpoint;
+        this.bundle = opaEndpoint.getWasmBundle();
+        this.entrypoint = opaEndpoint.getWasmEntrypoint() != null ? opaEndpoint.getWasmEntrypoint() : entrypointFromPath();
+
+        if(ResourceHelper.isClasspathUri(bundle)) {
+            bundleFile = null;
+        } else {
+            bundleFile = new File(bundle.startsWith("file:") ? bundle.substring(5) : bundle);
+        }
+    }
+
+    private String entrypointFromPath() {
+        String path = URI.create(opaEndpoint.getOpaUrl()).getPath();
+        String dataPrefix = "/v1/data/";
+        return path.startsWith(dataPrefix) ? path.substring(dataPrefix.length()) : null;
+    }
+
+    public void start() throws Exception {
+        try {
+            load();
+        } catch(LinkageError e) {
+            throw new IllegalStateException("Evaluating the OPA Wasm bundle " + bundle
+                    + " needs com.styra.opa:opa-java-wasm on the classpath and Java 11 or later", e);
+        }
+        if(bundleFile != null && opaEndpoint.getWasmReloadInterval() > 0) {
+            long interval = opaEndpoint.getWasmReloadInterval();
+            reloader = opaEndpoint.getCamelContext().getExecutorServiceManager()
+                    .newSingleThreadScheduledExecutor(this, "OpaWasmReloader");
+            reloader.scheduleWithFixedDelay(this::reloadIfModified, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    public void stop() {
+        if(reloader != null) {
+            opaEndpoint.getCamelContext().getExecutorServiceManager().shutdown(reloader);
+            reloader = null;
+        }
+        instances = null;
+    }
+
+    private void load() throws IOException {
+        long lastModified = bundleFile != null ? bundleFile.lastModified() : 0;
+        byte[] content;
+        try (InputStream inputStream = bundleFile != null
+                ? Files.newInputStream(bundleFile.toPath())
+                : ResourceHelper.resolveMandatoryResourceAsInputStream(opaEndpoint.getCamelContext(), bundle)) {
+            content = OpaIOHelper.readFully(inputStream);
+        }
+
+        OpaWasmBundle wasmBundle = OpaWasmBundle.read(bundle, content);
+        byte[] wasm = wasmBundle.getWasm();
+        byte[] data = wasmBundle.getData();
+
+        int poolSize = opaEndpoint.getWasmPoolSize() > 0 ? opaEndpoint.getWasmPoolSize() : Runtime.getRuntime().availableProcessors();
+        BlockingQueue<OpaPolicy> pool = new ArrayBlockingQueue<>(poolSize);
+        for(int i = 0; i < poolSize; i++) {
+            OpaPolicy policy = OpaPolicy.builder().withPolicy(wasm).build();
+            if(entrypoint != null) {
+                policy.entrypoint(entrypoint);
+            }
+            if(data != null) {
+                policy.data(new String(data, StandardCharsets.UTF_8));
+            }
+            pool.add(policy);
+        }
+
+        instances = pool;
+        bundleLastModified = lastModified;
+        log.debug("Loaded OPA Wasm bundle {} with {} instances, entrypoint {}", bundle, poolSize, entrypoint);
+    }
+
+    private void reloadIfModified() {
+        if(bundleFile.lastModified() != bundleLastModified) {
+            try {
+                load();
+                log.info("Reloaded OPA Wasm bundle {}", bundle);
+            } catch(Exception e) {
+                log.warn("Failed to reload OPA Wasm bundle {}, keeping the previous policy", bundle, e);
+            }
+        }
+    }
+
+    /**
+     * Evaluates an OPA query document, <code>{"input": ...}</code>, the same way the remote query does.
+     */
+    public OpaDecision evaluate(byte[] body) {
+        BlockingQueue<OpaPolicy> pool = instances;
+        OpaPolicy policy = null;
+        try {
+            JsonElement document = JsonParser.parseReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8));
+            JsonElement input = document.isJsonObject() ? document.getAsJsonObject().get("input") : null;
+
+            policy = pool.take();
+            String result = policy.evaluate(input != null ? input.toString() : "null");
+
+            // evaluations answer with a result set: [{"result": ...}]
+            JsonArray resultSet = JsonParser.parseString(result).getAsJsonArray();
+            if(resultSet.size() == 0) {
+                return OpaDecision.deny();
+            }
+            JsonElement decision = ((JsonObject) resultSet.get(0)).get("result");
+            return decision != null && decision.isJsonPrimitive() && decision.getAsBoolean() ? OpaDecision.allow() : OpaDecision.deny();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return OpaDecision.failure(e);
+        } catch(Exception e) {
+            return OpaDecision.failure(e);
+        } finally {
+            if(policy != null) {
+                pool.offer(policy);
+            }
+        }
+    }
+}
@@ -16,24 +16,57 @@
  */
 package org.apache.camel.component.opa;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.camel.CamelContext;
 import org.apache.camel.Endpoint;
 import org.apache.camel.Exchange;
 import org.apache.camel.ProducerTemplate;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.platform.http.vertx.VertxPlatformHttpServer;
+import org.apache.camel.component.platform.http.vertx.VertxPlatformHttpServerConfiguration;
 import org.apache.camel.impl.DefaultCamelContext;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockserver.client.server.MockServerClient;
 import org.mockserver.matchers.Times;
+import org.mockserver.model.Delay;
 import org.mockserver.mockserver.MockServer;
+import org.mockserver.verify.VerificationTimes;
 
 import static org.apache.camel.support.ObjectHelper.contains;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockserver.model.HttpRequest.request;
 import static org.mockserver.model.HttpResponse.response;
+import static org.mockserver.model.JsonBody.json;
 import static org.mockserver.model.StringBody.exact;
 
 @Slf4j
@@ -87,6 +120,777 @@ public class OpaRouteTest  {
         assertTrue(contains("Valid", exchange.getIn().getHeader("OPA-RESULT")));
     }
 
+    @Test
+    public void testSuccessCallSynchronous() throws Exception {
+        camel.addRoutes(createRouteBuilder("opa:127.0.0.1:1080/test?secure=false&handleError=true&synchronous=true&operationType=" + OpaOperationType.QUERY));
+        camel.start();
+
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        Exchange exchange = endpoint.createExchange();
+
+        exchange.getIn().setBody(successMessage);
+        Exchange out = template.send(endpoint, exchange);
+
+        assertTrue(contains("Valid", exchange.getIn().getHeader("OPA-RESULT")));
+        assertTrue(exchange.getIn().getHeader("OPA-Exception") == null);
+    }
+
+    @Test
+    public void testInputStreamBody() throws Exception {
+        camel.addRoutes(createRouteBuilder("opa:127.0.0.1:1080/test?secure=false&handleError=true&operationType=" + OpaOperationType.QUERY));
+        camel.start();
+
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        Exchange exchange = endpoint.createExchange();
+
+        exchange.getIn().setBody(new ByteArrayInputStream(successMessage.getBytes(StandardCharsets.UTF_8)));
+        template.send(endpoint, exchange);
+
+        assertTrue(contains("Valid", exchange.getIn().getHeader("OPA-RESULT")));
+        assertTrue(exchange.getIn().getHeader("OPA-Exception") == null);
+    }
+
+    @Test
+    public void testByteBufferBody() throws Exception {
+        camel.addRoutes(createRouteBuilder("opa:127.0.0.1:1080/test?secure=false&handleError=true&operationType=" + OpaOperationType.QUERY));
+        camel.start();
+
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        Exchange exchange = endpoint.createExchange();
+
+        // a direct buffer has no backing array and is copied before being sent
+        byte[] content = successMessage.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocateDirect(content.length);
+        body.put(content).flip();
+        exchange.getIn().setBody(body);
+        template.send(endpoint, exchange);
+
+        assertTrue(contains("Valid", exchange.getIn().getHeader("OPA-RESULT")));
+        assertTrue(exchange.getIn().getHeader("OPA-Exception") == null);
+    }
+
+    @Test
+    public void testSharedConnectionPool() throws Exception {
+        new MockServerClient(testHost, testPort)
+                .when(
+                    request()
+                        .withMethod(testMethod)
+                        .withPath("/other"), Times.exactly(1))
+                .respond(
+                    response()
+                        .withStatusCode(200)
+                        .withBody(successResponseMessage));
+        camel.getComponent("opa", OpaComponent.class).setSharedConnectionPool(true);
+        String opaUri = "opa:127.0.0.1:1080/test?secure=false&handleError=true&operationType=" + OpaOperationType.QUERY;
+        String otherUri = "opa:127.0.0.1:1080/other?secure=false&handleError=true&operationType=" + OpaOperationType.QUERY;
+        camel.addRoutes(createRouteBuilder(opaUri));
+        camel.start();
+
+        Exchange other = template.send(otherUri, exchange -> exchange.getIn().setBody(successMessage));
+        assertTrue(contains("Valid", other.getIn().getHeader("OPA-RESULT")));
+
+        OpaEndpoint opaEndpoint = camel.getEndpoint(opaUri, OpaEndpoint.class);
+        OpaEndpoint otherEndpoint = camel.getEndpoint(otherUri, OpaEndpoint.class);
+        assertSame(opaEndpoint.getConnectionPool(), otherEndpoint.getConnectionPool());
+
+        // the pool stays open for the endpoint still using it
+        otherEndpoint.stop();
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        Exchange exchange = endpoint.createExchange();
+        exchange.getIn().setBody(successMessage);
+        template.send(endpoint, exchange);
+
+        assertTrue(contains("Valid", exchange.getIn().getHeader("OPA-RESULT")));
+        assertTrue(exchange.getIn().getHeader("OPA-Exception") == null);
+    }
+
+    @Test
+    public void testDecisionCache() throws Exception {
+        String opaUri = "opa:127.0.0.1:1080/test?secure=false&handleError=true&decisionCacheSize=10&operationType=" + OpaOperationType.QUERY;
+        camel.addRoutes(createRouteBuilder(opaUri));
+        camel.start();
+
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        Exchange first = endpoint.createExchange();
+        first.getIn().setBody(successMessage);
+        template.send(endpoint, first);
+
+        // same input with another key order and spacing, the mock server only answers once
+        Exchange second = endpoint.createExchange();
+        second.getIn().setBody("{\"input\":{\"access\":\"write\",   \"user\":\"test\"}}");
+        template.send(endpoint, second);
+
+        assertTrue(contains("Valid", second.getIn().getHeader("OPA-RESULT")));
+        assertTrue(second.getIn().getHeader("OPA-Exception") == null);
+
+        OpaEndpoint opaEndpoint = camel.getEndpoint(opaUri, OpaEndpoint.class);
+        assertEquals(1, opaEndpoint.getDecisionCacheHits());
+        assertEquals(1, opaEndpoint.getDecisionCacheMisses());
+    }
+
+    @Test
+    public void testCoalescedRequests() throws Exception {
+        new MockServerClient(testHost, testPort)
+                .when(
+                    request()
+                        .withMethod(testMethod)
+                        .withPath("/slow"), Times.exactly(1))
+                .respond(
+                    response()
+                        .withStatusCode(200)
+                        .withBody(successResponseMessage)
+                        .withDelay(new Delay(TimeUnit.MILLISECONDS, 500)));
+        String opaUri = "opa:127.0.0.1:1080/slow?secure=false&handleError=true&coalesceRequests=true&operationType=" + OpaOperationType.QUERY;
+        camel.addRoutes(createRouteBuilder(opaUri));
+        camel.start();
+
+        // the identical inputs are sent while the first request waits for its answer
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        List<Future<Exchange>> exchanges = new CopyOnWriteArrayList<>();
+        for(int i = 0; i < 3; i++) {
+            exchanges.add(template.asyncSend(endpoint, exchange -> exchange.getIn().setBody(successMessage)));
+        }
+
+        for(Future<Exchange> future : exchanges) {
+            Exchange exchange = future.get(5, TimeUnit.SECONDS);
+            assertTrue(contains("Valid", exchange.getIn().getHeader("OPA-RESULT")));
+            assertTrue(exchange.getIn().getHeader("OPA-Exception") == null);
+        }
+        new MockServerClient(testHost, testPort).verify(request().withPath("/slow"), VerificationTimes.exactly(1));
+        assertEquals(2, camel.getEndpoint(opaUri, OpaEndpoint.class).getCoalescedRequests());
+    }
+
+    @Test
+    public void testFailoverToAnotherInstance() throws Exception {
+        // nothing listens on 1081, whichever instance is tried first the exchange ends up on the mock server
+        camel.addRoutes(createRouteBuilder("opa:127.0.0.1:1080/test?secure=false&handleError=true&synchronous=true"
+                + "&instances=127.0.0.1:1081&operationType=" + OpaOperationType.QUERY));
+        camel.start();
+
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        Exchange exchange = endpoint.createExchange();
+
+        exchange.getIn().setBody(successMessage);
+        template.send(endpoint, exchange);
+
+        assertTrue(contains("Valid", exchange.getIn().getHeader("OPA-RESULT")));
+        assertTrue(exchange.getIn().getHeader("OPA-Exception") == null);
+    }
+
+    @Test
+    public void testPolicyUploadSkipsUnchangedModules() throws Exception {
+        MockServerClient mockServerClient = new MockServerClient(testHost, testPort);
+        mockServerClient
+                .when(
+                    request()
+                        .withMethod("PUT")
+                        .withPath("/v1/policies/example"), Times.exactly(1))
+                .respond(
+                    response()
+                        .withStatusCode(200)
+                        .withBody("{}"));
+        mockServerClient
+                .when(
+                    request()
+                        .withMethod("GET")
+                        .withPath("/v1/policies"), Times.exactly(1))
+                .respond(
+                    response()
+                        .withStatusCode(200)
+                        .withBody("{\"result\": [{\"id\": \"example\", \"raw\": \"package example\\n\\ndefault allow = false\\n\"}]}"));
+        camel.addRoutes(createRouteBuilder("opa:127.0.0.1:1080/v1/policies?secure=false&handleError=true&operationType=" + OpaOperationType.POLICY));
+        camel.start();
+
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        String policy = "package example\n\ndefault allow = false\n";
+
+        Exchange first = endpoint.createExchange();
+        first.getIn().setHeader("OPA-PolicyId", "example");
+        first.getIn().setBody(policy);
+        template.send(endpoint, first);
+
+        assertTrue(contains("Valid", first.getIn().getHeader("OPA-RESULT")));
+        assertTrue(contains("example", first.getIn().getHeader("OPA-PolicyUploaded")));
+
+        // the mock server only answers once, the unchanged module must not be uploaded again
+        Exchange second = endpoint.createExchange();
+        second.getIn().setHeader("OPA-PolicyId", "example");
+        second.getIn().setBody(policy);
+        template.send(endpoint, second);
+
+        assertTrue(contains("Valid", second.getIn().getHeader("OPA-RESULT")));
+        assertTrue(contains("example", second.getIn().getHeader("OPA-PolicySkipped")));
+        assertTrue(second.getIn().getHeader("OPA-Exception") == null);
+    }
+
+    @Test
+    public void testPolicyUploadedAgainWhenLostByOpa() throws Exception {
+        MockServerClient mockServerClient = new MockServerClient(testHost, testPort);
+        mockServerClient
+                .when(
+                    request()
+                        .withMethod("PUT")
+                        .withPath("/v1/policies/example"), Times.exactly(2))
+                .respond(
+                    response()
+                        .withStatusCode(200)
+                        .withBody("{}"));
+        // OPA restarted and holds no policy anymore
+        mockServerClient
+                .when(
+                    request()
+                        .withMethod("GET")
+                        .withPath("/v1/policies"), Times.exactly(1))
+                .respond(
+                    response()
+                        .withStatusCode(200)
+                        .withBody("{\"result\": []}"));
+        camel.addRoutes(createRouteBuilder("opa:127.0.0.1:1080/v1/policies?secure=false&handleError=true&operationType=" + OpaOperationType.POLICY));
+        camel.start();
+
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        String policy = "package example\n\ndefault allow = false\n";
+        for(int i = 0; i < 2; i++) {
+            Exchange exchange = endpoint.createExchange();
+            exchange.getIn().setHeader("OPA-PolicyId", "example");
+            exchange.getIn().setBody(policy);
+            template.send(endpoint, exchange);
+
+            assertTrue(contains("Valid", exchange.getIn().getHeader("OPA-RESULT")));
+            assertTrue(contains("example", exchange.getIn().getHeader("OPA-PolicyUploaded")));
+        }
+        mockServerClient.verify(request().withMethod("PUT").withPath("/v1/policies/example"), VerificationTimes.exactly(2));
+    }
+
+    @Test
+    public void testAclCheckedLocally() throws Exception {
+        new MockServerClient(testHost, testPort)
+                .when(
+                    request()
+                        .withMethod("GET")
+                        .withPath("/v1/data/acl"), Times.exactly(1))
+                .respond(
+                    response()
+                        .withStatusCode(200)
+                        .withBody("{\"result\": {\"doc1\": {\"alice\": [\"read\"], \"bob\": [\"read\", \"write\"]}}}"));
+        camel.addRoutes(createRouteBuilder("opa:127.0.0.1:1080/v1/data/acl?secure=false&handleError=true&operationType=" + OpaOperationType.ACL));
+        camel.start();
+
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        Exchange allowed = endpoint.createExchange();
+        allowed.getIn().setHeader("OPA-Principal", "alice");
+        allowed.getIn().setHeader("OPA-Resource", "doc1");
+        allowed.getIn().setHeader("OPA-Permission", "read");
+        template.send(endpoint, allowed);
+
+        assertTrue(contains("Valid", allowed.getIn().getHeader("OPA-RESULT")));
+        assertTrue(allowed.getIn().getHeader("OPA-Exception") == null);
+
+        Exchange denied = endpoint.createExchange();
+        denied.getIn().setHeader("OPA-Principal", "alice");
+        denied.getIn().setHeader("OPA-Resource", "doc1");
+        denied.getIn().setHeader("OPA-Permission", "write");
+        template.send(endpoint, denied);
+
+        assertTrue(denied.getIn().getHeader("OPA-Exception") != null);
+    }
+
+    @Test
+    public void testAclRefreshSkippedForSameBundleRevision() throws Exception {
+        MockServerClient mockServerClient = new MockServerClient(testHost, testPort);
+        mockServerClient
+                .when(
+                    request()
+                        .withMethod("GET")
+                        .withPath("/v1/data/system/bundles"), Times.exactly(2))
+                .respond(
+                    response()
+                        .withStatusCode(200)
+                        .withBody("{\"result\": {\"acl\": {\"manifest\": {\"revision\": \"r1\", \"roots\": [\"acl\"]}}}}"));
+        mockServerClient
+                .when(
+                    request()
+                        .withMethod("GET")
+                        .withPath("/v1/data/acl"), Times.exactly(1))
+                .respond(
+                    response()
+                        .withStatusCode(200)
+                        .withBody("{\"result\": {\"doc1\": {\"alice\": [\"read\"]}}}"));
+        String opaUri = "opa:127.0.0.1:1080/v1/data/acl?secure=false&handleError=true&aclRefreshInterval=0&operationType=" + OpaOperationType.ACL;
+        camel.addRoutes(createRouteBuilder(opaUri));
+        camel.start();
+
+        // OPA sends no ETag, the unchanged revision keeps the document from being downloaded again
+        OpaEndpoint opaEndpoint = camel.getEndpoint(opaUri, OpaEndpoint.class);
+        opaEndpoint.getAclSnapshot().refresh();
+
+        assertEquals(2, opaEndpoint.getAclRefreshes());
+        assertEquals(1, opaEndpoint.getAclUnchangedRefreshes());
+        mockServerClient.verify(request().withPath("/v1/data/acl"), VerificationTimes.exactly(1));
+    }
+
+    @Test
+    public void testAclRefreshedOutsideBundleRoots() throws Exception {
+        MockServerClient mockServerClient = new MockServerClient(testHost, testPort);
+        mockServerClient
+                .when(
+                    request()
+                        .withMethod("GET")
+                        .withPath("/v1/data/system/bundles"), Times.exactly(2))
+                .respond(
+                    response()
+                        .withStatusCode(200)
+                        .withBody("{\"result\": {\"authz\": {\"manifest\": {\"revision\": \"r1\", \"roots\": [\"authz\"]}}}}"));
+        mockServerClient
+                .when(
+                    request()
+                        .withMethod("GET")
+                        .withPath("/v1/data/acl"), Times.exactly(2))
+                .respond(
+                    response()
+                        .withStatusCode(200)
+                        .withBody("{\"result\": {\"doc1\": {\"alice\": [\"read\"]}}}"));
+        String opaUri = "opa:127.0.0.1:1080/v1/data/acl?secure=false&handleError=true&aclRefreshInterval=0&operationType=" + OpaOperationType.ACL;
+        camel.addRoutes(createRouteBuilder(opaUri));
+        camel.start();
+
+        // the bundle does not own the document, which may have been pushed with the Data API
+        OpaEndpoint opaEndpoint = camel.getEndpoint(opaUri, OpaEndpoint.class);
+        opaEndpoint.getAclSnapshot().refresh();
+
+        assertEquals(0, opaEndpoint.getAclUnchangedRefreshes());
+        mockServerClient.verify(request().withPath("/v1/data/acl"), VerificationTimes.exactly(2));
+    }
+
+    @Test
+    public void testDataPushSendsPatch() throws Exception {
+        new MockServerClient(testHost, testPort)
+                .when(
+                    request()
+                        .withMethod("PUT")
+                        .withPath("/v1/data/users"), Times.exactly(1))
+                .respond(
+                    response()
+                        .withStatusCode(204));
+        new MockServerClient(testHost, testPort)
+                .when(
+                    request()
+                        .withMethod("PATCH")
+                        .withPath("/v1/data/users")
+                        .withBody(json("[{\"op\": \"replace\", \"path\": \"/alice/role\", \"value\": \"admin\"}]")), Times.exactly(1))
+                .respond(
+                    response()
+                        .withStatusCode(204));
+        camel.addRoutes(createRouteBuilder("opa:127.0.0.1:1080/v1/data/users?secure=false&handleError=true&operationType=" + OpaOperationType.DATA));
+        camel.start();
+
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        Exchange first = endpoint.createExchange();
+        first.getIn().setBody("{\"alice\": {\"role\": \"user\", \"team\": \"sales\"}, \"bob\": {\"role\": \"user\", \"team\": \"support\"}}");
+        template.send(endpoint, first);
+
+        assertEquals("PUT", first.getIn().getHeader("OPA-DataUpdate"));
+
+        Exchange second = endpoint.createExchange();
+        second.getIn().setBody("{\"alice\": {\"role\": \"admin\", \"team\": \"sales\"}, \"bob\": {\"role\": \"user\", \"team\": \"support\"}}");
+        template.send(endpoint, second);
+
+        assertEquals("PATCH", second.getIn().getHeader("OPA-DataUpdate"));
+        assertTrue(second.getIn().getHeader("OPA-Exception") == null);
+    }
+
+    @Test
+    public void testPartialEvaluation() throws Exception {
+        new MockServerClient(testHost, testPort)
+                .when(
+                    request()
+                        .withMethod(testMethod)
+                        .withPath("/v1/data/example/allow"), Times.exactly(1))
+                .respond(
+                    response()
+                        .withStatusCode(200)
+                        .withBody(successResponseMessage));
+        new MockServerClient(testHost, testPort)
+                .when(
+                    request()
+                        .withMethod(testMethod)
+                        .withPath("/v1/compile"), Times.exactly(1))
+                .respond(
+                    response()
+                        .withStatusCode(200)
+                        .withBody("{\"result\": {\"queries\": [[{\"index\": 0, \"terms\": ["
+                                + "{\"type\": \"ref\", \"value\": [{\"type\": \"var\", \"value\": \"eq\"}]},"
+                                + "{\"type\": \"ref\", \"value\": [{\"type\": \"var\", \"value\": \"input\"}, {\"type\": \"string\", \"value\": \"method\"}]},"
+                                + "{\"type\": \"string\", \"value\": \"GET\"}]}]]}}"));
+        camel.addRoutes(createRouteBuilder("opa:127.0.0.1:1080/v1/data/example/allow?secure=false&handleError=true&synchronous=true"
+                + "&compileUnknowns=input.method&operationType=" + OpaOperationType.QUERY));
+        camel.start();
+
+        // the first exchange is evaluated by OPA while the residual policy of the tenant is compiled
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        Exchange first = endpoint.createExchange();
+        first.getIn().setBody("{\"input\": {\"tenant\": \"acme\", \"method\": \"GET\"}}");
+        template.send(endpoint, first);
+        assertTrue(contains("Valid", first.getIn().getHeader("OPA-RESULT")));
+        assertTrue(first.getIn().getHeader("OPA-Exception") == null);
+
+        Exchange allowed = endpoint.createExchange();
+        allowed.getIn().setBody("{\"input\": {\"tenant\": \"acme\", \"method\": \"GET\"}}");
+        template.send(endpoint, allowed);
+        assertTrue(allowed.getIn().getHeader("OPA-Exception") == null);
+
+        Exchange denied = endpoint.createExchange();
+        denied.getIn().setBody("{\"input\": {\"method\": \"DELETE\", \"tenant\": \"acme\"}}");
+        template.send(endpoint, denied);
+        assertTrue(denied.getIn().getHeader("OPA-Exception") != null);
+    }
+
+    @Test
+    public void testHedgedRequest() throws Exception {
+        new MockServerClient(testHost, testPort)
+                .when(
+                    request()
+                        .withMethod(testMethod)
+                        .withPath("/slow"), Times.exactly(2))
+                .respond(
+                    response()
+                        .withStatusCode(200)
+                        .withBody(successResponseMessage)
+                        .withDelay(new Delay(TimeUnit.MILLISECONDS, 500)));
+        String opaUri = "opa:127.0.0.1:1080/slow?secure=false&handleError=true&hedging=true&hedgeDelay=50&hedgeRatio=100"
+                + "&operationType=" + OpaOperationType.QUERY;
+        camel.addRoutes(createRouteBuilder(opaUri));
+        camel.start();
+
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        Exchange exchange = endpoint.createExchange();
+
+        exchange.getIn().setBody(successMessage);
+        template.send(endpoint, exchange);
+
+        assertTrue(contains("Valid", exchange.getIn().getHeader("OPA-RESULT")));
+        assertTrue(exchange.getIn().getHeader("OPA-Exception") == null);
+        assertEquals(1, camel.getEndpoint(opaUri, OpaEndpoint.class).getHedgesIssued());
+    }
+
+    @Test
+    public void testCircuitBreakerFallback() throws Exception {
+        // nothing listens on 1081, the breaker opens after two failed calls
+        camel.addRoutes(createRouteBuilder("opa:127.0.0.1:1081/test?secure=false&handleError=true&synchronous=true"
+                + "&circuitBreaker=true&circuitBreakerWindowSize=2&circuitBreakerFallback=ALLOW&operationType=" + OpaOperationType.QUERY));
+        camel.start();
+
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        for(int i = 0; i < 2; i++) {
+            Exchange failed = endpoint.createExchange();
+            failed.getIn().setBody(successMessage);
+            template.send(endpoint, failed);
+            assertTrue(failed.getIn().getHeader("OPA-Exception") != null);
+        }
+
+        Exchange exchange = endpoint.createExchange();
+        exchange.getIn().setBody(successMessage);
+        template.send(endpoint, exchange);
+
+        assertEquals("OPEN", exchange.getIn().getHeader("OPA-CircuitBreaker"));
+        assertTrue(contains("Valid", exchange.getIn().getHeader("OPA-RESULT")));
+        assertTrue(exchange.getIn().getHeader("OPA-Exception") == null);
+    }
+
+    @Test
+    public void testBulkheadReject() throws Exception {
+        new MockServerClient(testHost, testPort)
+                .when(
+                    request()
+                        .withMethod(testMethod)
+                        .withPath("/slow"), Times.exactly(1))
+                .respond(
+                    response()
+                        .withStatusCode(200)
+                        .withBody(successResponseMessage)
+                        .withDelay(new Delay(TimeUnit.MILLISECONDS, 500)));
+        String opaUri = "opa:127.0.0.1:1080/slow?secure=false&handleError=true&bulkheadMaxConcurrentCalls=1"
+                + "&bulkheadExecutor=true&operationType=" + OpaOperationType.QUERY;
+        camel.addRoutes(createRouteBuilder(opaUri));
+        camel.start();
+
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        Future<Exchange> slow = template.asyncSend(endpoint, exchange -> exchange.getIn().setBody(successMessage));
+        OpaEndpoint opaEndpoint = camel.getEndpoint(opaUri, OpaEndpoint.class);
+        while(opaEndpoint.getBulkheadInFlight() == 0) {
+            Thread.sleep(10);
+        }
+
+        Exchange rejected = endpoint.createExchange();
+        rejected.getIn().setBody(successMessage);
+        template.send(endpoint, rejected);
+
+        assertTrue(contains("bulkhead", rejected.getIn().getHeader("OPA-Exception")));
+        assertTrue(contains("Valid", slow.get(5, TimeUnit.SECONDS).getIn().getHeader("OPA-RESULT")));
+        assertEquals(1, opaEndpoint.getBulkheadRejectedCount());
+    }
+
+    @Test
+    public void testMultiplePoliciesDenied() throws Exception {
+        new MockServerClient(testHost, testPort)
+                .when(
+                    request()
+                        .withMethod(testMethod)
+                        .withPath("/deny"), Times.exactly(1))
+                .respond(
+                    response()
+                        .withStatusCode(200)
+                        .withBody("{\"result\":false}"));
+        camel.addRoutes(createRouteBuilder("opa:127.0.0.1:1080/test?secure=false&handleError=true&policies=/deny"
+                + "&policyCombination=ALL_ALLOW&operationType=" + OpaOperationType.QUERY));
+        camel.start();
+
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        Exchange exchange = endpoint.createExchange();
+        exchange.getIn().setBody(successMessage);
+        template.send(endpoint, exchange);
+
+        assertTrue(contains("/deny", exchange.getIn().getHeader("OPA-Exception")));
+    }
+
+    @Test
+    public void testMultiplePoliciesWithPartialEvaluation() throws Exception {
+        camel.addRoutes(createRouteBuilder("opa:127.0.0.1:1080/test?secure=false&handleError=true&policies=/deny"
+                + "&compileUnknowns=input.access&operationType=" + OpaOperationType.QUERY));
+
+        // the residual policy of /test would allow without asking /deny
+        boolean rejected = false;
+        try {
+            camel.start();
+        } catch(Exception e) {
+            for(Throwable cause = e; cause != null; cause = cause.getCause()) {
+                rejected |= cause instanceof IllegalArgumentException && contains("compileUnknowns", cause.getMessage());
+            }
+        }
+        assertTrue(rejected);
+    }
+
+    @Test
+    public void testFilter() throws Exception {
+        MockServerClient mockServerClient = new MockServerClient(testHost, testPort);
+        for(String element : Arrays.asList("a", "b", "c")) {
+            mockServerClient
+                .when(
+                    request()
+                        .withMethod(testMethod)
+                        .withPath("/filter")
+                        .withBody(exact("{\"input\":{\"resource\":\"" + element + "\"}}")), Times.exactly(1))
+                .respond(
+                    response()
+                        .withStatusCode(200)
+                        .withBody("b".equals(element) ? "{\"result\":false}" : successResponseMessage));
+        }
+        camel.addRoutes(createRouteBuilder("opa:127.0.0.1:1080/filter?secure=false&handleError=true&filterConcurrency=2"
+                + "&operationType=" + OpaOperationType.FILTER));
+        camel.start();
+
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        Exchange exchange = endpoint.createExchange();
+        exchange.getIn().setBody(Arrays.asList("a", "b", "c"));
+        template.send(endpoint, exchange);
+
+        assertTrue(exchange.getIn().getHeader("OPA-Exception") == null);
+        assertEquals(Arrays.asList("a", "c"), exchange.getIn().getBody());
+        assertEquals(1, exchange.getIn().getHeader("OPA-FilterDenied"));
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        new MockServerClient(testHost, testPort)
+                .when(
+                    request()
+                        .withMethod(testMethod)
+                        .withPath("/batch")
+                        .withBody(exact("{\"input\":[{\"user\":\"a\"},{\"user\":\"b\"},{\"user\":\"c\"}]}")), Times.exactly(1))
+                .respond(
+                    response()
+                        .withStatusCode(200)
+                        .withBody("{\"result\":[true,false,true]}"));
+        // the batch is only sent once full
+        camel.addRoutes(createRouteBuilder("opa:127.0.0.1:1080/test?secure=false&handleError=true&batchSize=3&batchMaxDelayMs=5000"
+                + "&batchPath=/batch&operationType=" + OpaOperationType.QUERY));
+        camel.start();
+
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        List<Future<Exchange>> exchanges = new CopyOnWriteArrayList<>();
+        for(String user : Arrays.asList("a", "b", "c")) {
+            exchanges.add(template.asyncSend(endpoint, exchange -> exchange.getIn().setBody("{\"input\": {\"user\": \"" + user + "\"}}")));
+            // keeps the inputs in the order the mock server expects
+            Thread.sleep(100);
+        }
+
+        Exchange a = exchanges.get(0).get(5, TimeUnit.SECONDS);
+        Exchange b = exchanges.get(1).get(5, TimeUnit.SECONDS);
+        Exchange c = exchanges.get(2).get(5, TimeUnit.SECONDS);
+        assertTrue(contains("Valid", a.getIn().getHeader("OPA-RESULT")));
+        assertTrue(a.getIn().getHeader("OPA-Exception") == null);
+        assertTrue(b.getIn().getHeader("OPA-Exception") != null);
+        assertTrue(contains("Valid", c.getIn().getHeader("OPA-RESULT")));
+        assertTrue(c.getIn().getHeader("OPA-Exception") == null);
+        new MockServerClient(testHost, testPort).verify(request().withPath("/batch"), VerificationTimes.exactly(1));
+    }
+
+    @Test
+    public void testBatchResultNotBoolean() throws Exception {
+        new MockServerClient(testHost, testPort)
+                .when(
+                    request()
+                        .withMethod(testMethod)
+                        .withPath("/batch"), Times.exactly(1))
+                .respond(
+                    response()
+                        .withStatusCode(200)
+                        .withBody("{\"result\":[true,null,\"yes\"]}"));
+        camel.addRoutes(createRouteBuilder("opa:127.0.0.1:1080/test?secure=false&handleError=true&batchSize=3&batchMaxDelayMs=5000"
+                + "&batchPath=/batch&operationType=" + OpaOperationType.QUERY));
+        camel.start();
+
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        List<Future<Exchange>> exchanges = new CopyOnWriteArrayList<>();
+        for(String user : Arrays.asList("a", "b", "c")) {
+            exchanges.add(template.asyncSend(endpoint, exchange -> exchange.getIn().setBody("{\"input\": {\"user\": \"" + user + "\"}}")));
+            Thread.sleep(100);
+        }
+
+        Exchange a = exchanges.get(0).get(5, TimeUnit.SECONDS);
+        Exchange b = exchanges.get(1).get(5, TimeUnit.SECONDS);
+        Exchange c = exchanges.get(2).get(5, TimeUnit.SECONDS);
+        assertTrue(a.getIn().getHeader("OPA-Exception") == null);
+        // a null element is an undefined decision, denied as for a single request
+        assertTrue(b.getIn().getHeader("OPA-Exception") != null);
+        assertTrue(contains("Valid", b.getIn().getHeader("OPA-RESULT")));
+        // anything else is an error of its own exchange only
+        assertTrue(c.getIn().getHeader("OPA-RESULT") == null);
+        assertTrue(c.getIn().getHeader("OPA-Exception", String.class).contains("not a boolean"));
+    }
+
+    @Test
+    public void testWasmBundle() throws Exception {
+        // the policy sits under a path longer than a plain tar header holds, stored with a pax header
+        byte[] content;
+        try (InputStream inputStream = getClass().getResourceAsStream("/wasm/bundle.tar.gz")) {
+            content = OpaIOHelper.readFully(inputStream);
+        }
+        OpaWasmBundle bundle = OpaWasmBundle.read("bundle.tar.gz", content);
+
+        assertTrue(Arrays.equals(new byte[] {0, 'a', 's', 'm', 1, 0, 0, 0}, bundle.getWasm()));
+        assertEquals("{\"roles\":{\"test\":[\"write\"]}}", new String(bundle.getData(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWasmEvaluation() throws Exception {
+        Assume.assumeTrue("opa-java-wasm needs Java 11 or later", !System.getProperty("java.version").startsWith("1."));
+        Path directory = Files.createTempDirectory("opa-wasm");
+        Path policy = directory.resolve("example.rego");
+        try (InputStream inputStream = getClass().getResourceAsStream("/wasm/example.rego")) {
+            Files.copy(inputStream, policy);
+        }
+        Path bundle = directory.resolve("bundle.tar.gz");
+        Assume.assumeTrue("opa is needed to compile the Wasm bundle", buildWasmBundle(policy, bundle));
+
+        // nothing listens for this endpoint, the decisions come from the bundle
+        camel.addRoutes(createRouteBuilder("opa:127.0.0.1:1081/v1/data/example/allow?secure=false&handleError=true"
+                + "&wasmPoolSize=2&wasmReloadInterval=1&wasmBundle=file:" + bundle + "&operationType=" + OpaOperationType.QUERY));
+        camel.start();
+
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        Exchange alice = template.send(endpoint, exchange -> exchange.getIn().setBody("{\"input\": {\"user\": \"alice\"}}"));
+        assertTrue(contains("Valid", alice.getIn().getHeader("OPA-RESULT")));
+        assertTrue(alice.getIn().getHeader("OPA-Exception") == null);
+
+        Exchange bob = template.send(endpoint, exchange -> exchange.getIn().setBody("{\"input\": {\"user\": \"bob\"}}"));
+        assertTrue(bob.getIn().getHeader("OPA-Exception") != null);
+
+        // the bundle changes on disk and is reloaded
+        Files.write(policy, new String(Files.readAllBytes(policy), StandardCharsets.UTF_8).replace("alice", "bob").getBytes(StandardCharsets.UTF_8));
+        assertTrue(buildWasmBundle(policy, bundle));
+        bundle.toFile().setLastModified(System.currentTimeMillis() + 2000);
+        boolean reloaded = false;
+        for(int i = 0; i < 50 && !reloaded; i++) {
+            Thread.sleep(100);
+            Exchange exchange = template.send(endpoint, e -> e.getIn().setBody("{\"input\": {\"user\": \"bob\"}}"));
+            reloaded = exchange.getIn().getHeader("OPA-Exception") == null;
+        }
+        assertTrue(reloaded);
+    }
+
+    /**
+     * Compiles the policy to a Wasm bundle with the opa command, returns false when it is not installed
+     */
+    private static boolean buildWasmBundle(Path policy, Path bundle) throws Exception {
+        Path built = bundle.resolveSibling("build.tar.gz");
+        Process process;
+        try {
+            process = new ProcessBuilder("opa", "build", "-t", "wasm", "-e", "example/allow", "-o", built.toString(), policy.toString())
+                    .redirectErrorStream(true)
+                    .start();
+        } catch(IOException e) {
+            return false;
+        }
+        String output = new String(OpaIOHelper.readFully(process.getInputStream()), StandardCharsets.UTF_8);
+        if(process.waitFor() != 0) {
+            log.warn("opa build failed: {}", output);
+            return false;
+        }
+        // the reloader never sees a partly written bundle
+        Files.move(built, bundle, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        String opaUri = "opa:127.0.0.1:1080/test?secure=false&handleError=true&operationType=" + OpaOperationType.QUERY;
+        camel.addRoutes(createRouteBuilder(opaUri));
+        camel.start();
+
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        Exchange exchange = endpoint.createExchange();
+        exchange.getIn().setBody(successMessage);
+        template.send(endpoint, exchange);
+
+        OpaEndpoint opaEndpoint = camel.getEndpoint(opaUri, OpaEndpoint.class);
+        assertEquals(1, opaEndpoint.getAllowedCount());
+        assertEquals(0, opaEndpoint.getDeniedCount());
+        assertEquals(0, opaEndpoint.getInFlightRequests());
+        assertTrue(opaEndpoint.getBytesSent() > 0);
+        assertTrue(opaEndpoint.getTotalTimeP99() > 0);
+
+        opaEndpoint.resetStatistics();
+        assertEquals(0, opaEndpoint.getAllowedCount());
+    }
+
+    @Test
+    public void testInputTemplate() throws Exception {
+        new MockServerClient(testHost, testPort)
+                .when(
+                    request()
+                        .withMethod(testMethod)
+                        .withPath("/template")
+                        .withBody(json(successMessage)), Times.exactly(1))
+                .respond(
+                    response()
+                        .withStatusCode(200)
+                        .withBody(successResponseMessage));
+        camel.addRoutes(createRouteBuilder("opa:127.0.0.1:1080/template?secure=false&handleError=true"
+                + "&inputTemplate=RAW(user=${header.user},access=${header.access})&operationType=" + OpaOperationType.QUERY));
+        camel.start();
+
+        Endpoint endpoint = camel.getEndpoint("direct:start");
+        Exchange exchange = endpoint.createExchange();
+
+        exchange.getIn().setHeader("user", "test");
+        exchange.getIn().setHeader("access", "write");
+        Exchange out = template.send(endpoint, exchange);
+
+        assertTrue(contains("Valid", exchange.getIn().getHeader("OPA-RESULT")));
+        assertTrue(exchange.getIn().getHeader("OPA-Exception") == null);
+    }
+
     @Test
     public void testUnauthorizedWithErrorHandling() throws Exception {
         camel.addRoutes(createRouteBuilder("opa:127.0.0.1:1080/test?secure=false&handleError=true&operationType=" + OpaOperationType.QUERY));
@@ -129,6 +933,114 @@ public class OpaRouteTest  {
         assertTrue(out.getException() != null);
     }
 
+    @Test
+    public void testDecisionLogConsumer() throws Exception {
+        List<String> decisions = new CopyOnWriteArrayList<>();
+        VertxPlatformHttpServerConfiguration serverConfiguration = new VertxPlatformHttpServerConfiguration();
+        serverConfiguration.setBindHost("127.0.0.1");
+        serverConfiguration.setBindPort(9191);
+        camel.addService(new VertxPlatformHttpServer(serverConfiguration));
+        camel.addRoutes(new RouteBuilder() {
+            public void configure() throws Exception {
+                from("opa:127.0.0.1:9191/logs?splitDecisions=true")
+                        .process(exchange -> decisions.add(exchange.getIn().getHeader("OPA-DecisionId", String.class)));
+            }
+        });
+        camel.start();
+
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(batch)) {
+            gzip.write("[{\"decision_id\": \"1\", \"result\": true}, {\"decision_id\": \"2\", \"result\": false}]".getBytes(StandardCharsets.UTF_8));
+        }
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:9191/logs").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty("Content-Encoding", "gzip");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(batch.toByteArray());
+        }
+
+        assertEquals(204, connection.getResponseCode());
+        assertEquals(Arrays.asList("1", "2"), decisions);
+    }
+
+    @Test
+    public void testUnixSocket() throws Exception {
+        Class<?> addressClass;
+        try {
+            addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+        } catch(ClassNotFoundException e) {
+            Assume.assumeTrue("Unix domain sockets need Java 16 or later", false);
+            return;
+        }
+        Path socketPath = Files.createTempDirectory("opa").resolve("opa.sock");
+        ServerSocketChannel server = (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class)
+                .invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+        server.bind((SocketAddress) addressClass.getMethod("of", Path.class).invoke(null, socketPath));
+
+        // a single connection is accepted, the second call only succeeds if the first connection is reused
+        AtomicInteger requests = new AtomicInteger();
+        Thread opa = new Thread(() -> {
+            try (SocketChannel channel = server.accept()) {
+                InputStream in = Channels.newInputStream(channel);
+                OutputStream out = Channels.newOutputStream(channel);
+                String line;
+                int contentLength = 0;
+                while((line = readLine(in)) != null) {
+                    if(line.toLowerCase().startsWith("content-length:")) {
+                        contentLength = Integer.parseInt(line.substring(15).trim());
+                    } else if(line.isEmpty()) {
+                        for(int read = 0; read < contentLength; read++) {
+                            in.read();
+                        }
+                        requests.incrementAndGet();
+                        out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: "
+                                + successResponseMessage.length() + "\r\n\r\n" + successResponseMessage).getBytes(StandardCharsets.UTF_8));
+                        contentLength = 0;
+                    }
+                }
+            } catch(IOException e) {
+                log.debug("Unix socket OPA stopped", e);
+            }
+        });
+        opa.setDaemon(true);
+        opa.start();
+
+        try {
+            camel.addRoutes(createRouteBuilder("opa:localhost:8181/test?secure=false&handleError=true&socketTimeout=5&unixSocketPath="
+                    + socketPath + "&operationType=" + OpaOperationType.QUERY));
+            camel.start();
+
+            Endpoint endpoint = camel.getEndpoint("direct:start");
+            for(int i = 0; i < 2; i++) {
+                Exchange exchange = endpoint.createExchange();
+                exchange.getIn().setBody(successMessage);
+                template.send(endpoint, exchange);
+                assertTrue(contains("Valid", exchange.getIn().getHeader("OPA-RESULT")));
+                assertTrue(exchange.getIn().getHeader("OPA-Exception") == null);
+            }
+            assertEquals(2, requests.get());
+        } finally {
+            server.close();
+            Files.deleteIfExists(socketPath);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while((c = in.read()) != '\n') {
+            if(c < 0) {
+                return null;
+            }
+            if(c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
     protected RouteBuilder createRouteBuilder(final String opaEndpointUrl) throws Exception {
         return new RouteBuilder() {
             // START SNIPPET: route
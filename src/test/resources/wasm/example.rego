@@ -0,0 +1,9 @@
+package example
+
+import rego.v1
+
+default allow := false
+
+allow if {
+    input.user == "alice"
+}